@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * FtpServerFixture.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import net.seedboxer.common.ftp.FtpUploaderCommons;
+import net.seedboxer.common.ftp.io.TlsOptions;
+
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.ssl.SslConfigurationFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+
+/**
+ * In process Apache FtpServer on loopback, with a local directory holding
+ * the files to upload and a remote directory the server writes to.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class FtpServerFixture {
+
+	public final static String USERNAME = "bench";
+
+	public final static String PASSWORD = "bench";
+
+	private final File root;
+
+	private final File local;
+
+	private final File remote;
+
+	private FtpServer server;
+
+	private int port;
+
+	public FtpServerFixture() throws IOException {
+		root = File.createTempFile("ftp-benchmark", "");
+		root.delete();
+		local = new File(root, "local");
+		remote = new File(root, "remote");
+		local.mkdirs();
+		remote.mkdirs();
+	}
+
+	public void start() throws IOException, FtpException {
+		start(null);
+	}
+
+	/**
+	 * Starts the server with FTPS, on a self signed certificate generated
+	 * with the <code>keytool</code> of the running JVM.
+	 *
+	 * @param implicit TLS from the start, otherwise explicit AUTH TLS
+	 */
+	public void startSecure(boolean implicit) throws IOException, FtpException {
+		start(Boolean.valueOf(implicit));
+	}
+
+	private void start(Boolean implicit) throws IOException, FtpException {
+		port = freePort();
+
+		FtpServerFactory serverFactory = new FtpServerFactory();
+		ListenerFactory listenerFactory = new ListenerFactory();
+		listenerFactory.setServerAddress("127.0.0.1");
+		listenerFactory.setPort(port);
+		if (implicit != null) {
+			SslConfigurationFactory ssl = new SslConfigurationFactory();
+			ssl.setKeystoreFile(createKeystore());
+			ssl.setKeystorePassword(PASSWORD + PASSWORD);
+			listenerFactory.setSslConfiguration(ssl.createSslConfiguration());
+			listenerFactory.setImplicitSsl(implicit.booleanValue());
+		}
+		serverFactory.addListener("default", listenerFactory.createListener());
+
+		BaseUser user = new BaseUser();
+		user.setName(USERNAME);
+		user.setPassword(PASSWORD);
+		user.setHomeDirectory(remote.getAbsolutePath());
+		List<Authority> authorities = new ArrayList<Authority>();
+		authorities.add(new WritePermission());
+		authorities.add(new ConcurrentLoginPermission(64, 64));
+		user.setAuthorities(authorities);
+		serverFactory.getUserManager().save(user);
+
+		server = serverFactory.createServer();
+		server.start();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop();
+		}
+		delete(root);
+	}
+
+	public String getAddress() {
+		return "127.0.0.1:" + port;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public File getLocalRoot() {
+		return local;
+	}
+
+	public File getRemoteRoot() {
+		return remote;
+	}
+
+	/**
+	 * Uploader configured against this server.
+	 */
+	public FtpUploaderCommons newUploader() throws Exception {
+		FtpUploaderCommons uploader = new FtpUploaderCommons();
+		uploader.configure(getAddress(), USERNAME, PASSWORD, null, false);
+		return uploader;
+	}
+
+	/**
+	 * Uploader configured against this server started with
+	 * {@link #startSecure(boolean)}.
+	 */
+	public FtpUploaderCommons newUploader(TlsOptions tlsOptions) throws Exception {
+		FtpUploaderCommons uploader = new FtpUploaderCommons();
+		uploader.configure(getAddress(), USERNAME, PASSWORD, null, true);
+		uploader.setTlsOptions(tlsOptions);
+		return uploader;
+	}
+
+	/**
+	 * Local file with random content.
+	 */
+	public File createLocalFile(String name, long size) throws IOException {
+		File file = new File(local, name);
+		write(file, size, name.hashCode());
+		return file;
+	}
+
+	/**
+	 * Local directory with the given files spread in subdirectories of at
+	 * most 100 files.
+	 */
+	public File createLocalTree(String name, int files, long size) throws IOException {
+		File directory = new File(local, name);
+		for (int i = 0; i < files; i++) {
+			File file = new File(directory, "dir" + (i / 100) + File.separator + "file" + i);
+			write(file, size, i);
+		}
+		return directory;
+	}
+
+	/**
+	 * Remote directory with the given amount of empty files.
+	 */
+	public void createRemoteDirectory(String name, int files) throws IOException {
+		File directory = new File(remote, name);
+		directory.mkdirs();
+		for (int i = 0; i < files; i++) {
+			new File(directory, "entry-" + i + ".bin").createNewFile();
+		}
+	}
+
+	/**
+	 * Removes everything uploaded.
+	 */
+	public void clearRemote() {
+		File[] files = remote.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				delete(file);
+			}
+		}
+	}
+
+	private File createKeystore() throws IOException {
+		File keystore = new File(root, "server.jks");
+		if (keystore.exists()) {
+			return keystore;
+		}
+		String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+		Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "ftpserver", "-keyalg", "RSA",
+				"-keysize", "2048", "-validity", "30", "-dname", "CN=127.0.0.1", "-storetype", "JKS",
+				"-keystore", keystore.getAbsolutePath(), "-storepass", PASSWORD + PASSWORD,
+				"-keypass", PASSWORD + PASSWORD).redirectErrorStream(true).start();
+		try {
+			while (process.getInputStream().read() != -1) {
+				// Drain
+			}
+			if (process.waitFor() != 0 || !keystore.exists()) {
+				throw new IOException("keytool failed creating " + keystore);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted creating " + keystore);
+		}
+		return keystore;
+	}
+
+	private static void write(File file, long size, long seed) throws IOException {
+		file.getParentFile().mkdirs();
+		Random random = new Random(seed);
+		byte[] buffer = new byte[64 * 1024];
+		OutputStream out = new FileOutputStream(file);
+		try {
+			long written = 0;
+			while (written < size) {
+				random.nextBytes(buffer);
+				int length = (int) Math.min(buffer.length, size - written);
+				out.write(buffer, 0, length);
+				written += length;
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * ListingBenchmark.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.seedboxer.common.ftp.io.ZeroCopyFtpClient;
+import net.seedboxer.common.ftp.listing.RemoteLister;
+import net.seedboxer.common.ftp.listing.RemoteListing;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Listing of a very large remote directory, with LIST or MLSD and parsed
+ * while streamed or in pages.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ListingBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int entries;
+
+	@Param({ "true", "false" })
+	public boolean mlsd;
+
+	@Param({ "true", "false" })
+	public boolean streaming;
+
+	private FtpServerFixture server;
+
+	private FTPClient client;
+
+	private RemoteLister lister;
+
+	@Setup(Level.Trial)
+	public void startServer() throws Exception {
+		server = new FtpServerFixture();
+		server.createRemoteDirectory("large", entries);
+		server.start();
+
+		client = streaming ? new ZeroCopyFtpClient() : new FTPClient();
+		client.connect("127.0.0.1", server.getPort());
+		client.login(FtpServerFixture.USERNAME, FtpServerFixture.PASSWORD);
+		client.enterLocalPassiveMode();
+		client.setFileType(FTP.BINARY_FILE_TYPE);
+		client.changeWorkingDirectory("large");
+		lister = new RemoteLister(true, mlsd);
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServer() throws Exception {
+		client.logout();
+		client.disconnect();
+		server.stop();
+	}
+
+	@Benchmark
+	public RemoteListing list() throws Exception {
+		return lister.list(client);
+	}
+
+}
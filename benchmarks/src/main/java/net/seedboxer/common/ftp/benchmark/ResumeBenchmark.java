@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * ResumeBenchmark.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.benchmark;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+
+import net.seedboxer.common.ftp.FtpUploaderCommons;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of resuming: a large file cut at the given fraction, and a tree that
+ * is already complete in the server (only listing and skipping).
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ResumeBenchmark {
+
+	@Param({ "256" })
+	public int largeFileMegabytes;
+
+	@Param({ "0.5" })
+	public double uploadedFraction;
+
+	@Param({ "2000" })
+	public int smallFiles;
+
+	private FtpServerFixture server;
+
+	private File largeFile;
+
+	private File smallFilesTree;
+
+	private FtpUploaderCommons uploader;
+
+	@Setup(Level.Trial)
+	public void startServer() throws Exception {
+		server = new FtpServerFixture();
+		server.start();
+		largeFile = server.createLocalFile("large.bin", largeFileMegabytes * 1024L * 1024L);
+		smallFilesTree = server.createLocalTree("small", smallFiles, 1024);
+
+		uploader = server.newUploader();
+		uploader.connect();
+		uploader.upload(largeFile, UploadBenchmark.NO_PROGRESS);
+		uploader.upload(smallFilesTree, UploadBenchmark.NO_PROGRESS);
+		uploader.disconnect();
+	}
+
+	@Setup(Level.Invocation)
+	public void connect() throws Exception {
+		RandomAccessFile remote = new RandomAccessFile(new File(server.getRemoteRoot(), largeFile.getName()), "rw");
+		try {
+			remote.setLength((long) (largeFile.length() * uploadedFraction));
+		} finally {
+			remote.close();
+		}
+		uploader.connect();
+	}
+
+	@TearDown(Level.Invocation)
+	public void disconnect() throws Exception {
+		uploader.disconnect();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServer() {
+		server.stop();
+	}
+
+	@Benchmark
+	public void resumeLargeFile() throws Exception {
+		uploader.upload(largeFile, UploadBenchmark.NO_PROGRESS);
+	}
+
+	@Benchmark
+	public void skipCompleteTree() throws Exception {
+		uploader.upload(smallFilesTree, UploadBenchmark.NO_PROGRESS);
+	}
+
+}
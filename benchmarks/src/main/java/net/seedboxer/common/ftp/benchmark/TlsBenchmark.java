@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * TlsBenchmark.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import net.seedboxer.common.ftp.FtpUploaderCommons;
+import net.seedboxer.common.ftp.io.TlsOptions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per file overhead of FTPS: many small files over explicit and implicit
+ * TLS, with clear (PROT C) or private (PROT P) data connections, and with
+ * or without resuming the TLS session on every data connection.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TlsBenchmark {
+
+	@Param({ "500" })
+	public int smallFiles;
+
+	@Param({ "4" })
+	public int smallFileKilobytes;
+
+	@Param({ "false", "true" })
+	public boolean implicit;
+
+	@Param({ "C", "P" })
+	public String protection;
+
+	@Param({ "false", "true" })
+	public boolean sessionReuse;
+
+	private FtpServerFixture server;
+
+	private File smallFilesTree;
+
+	private FtpUploaderCommons uploader;
+
+	@Setup(Level.Trial)
+	public void startServer() throws Exception {
+		server = new FtpServerFixture();
+		server.startSecure(implicit);
+		smallFilesTree = server.createLocalTree("small", smallFiles, smallFileKilobytes * 1024L);
+	}
+
+	@Setup(Level.Invocation)
+	public void connect() throws Exception {
+		server.clearRemote();
+		uploader = server.newUploader(new TlsOptions(implicit, "P".equals(protection), sessionReuse));
+		uploader.connect();
+	}
+
+	@TearDown(Level.Invocation)
+	public void disconnect() throws Exception {
+		uploader.disconnect();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServer() {
+		server.stop();
+	}
+
+	@Benchmark
+	public void manySmallFiles() throws Exception {
+		uploader.upload(smallFilesTree, UploadBenchmark.NO_PROGRESS);
+	}
+
+}
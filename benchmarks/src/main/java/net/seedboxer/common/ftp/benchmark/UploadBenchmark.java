@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * UploadBenchmark.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import net.seedboxer.common.ftp.FtpUploaderCommons;
+import net.seedboxer.common.ftp.FtpUploaderListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Uploads to an empty server: a single large file (copy loop throughput)
+ * and a tree of many small files (per file overhead of the tree walk).
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UploadBenchmark {
+
+	static final FtpUploaderListener NO_PROGRESS = new FtpUploaderListener() {
+		@Override
+		public void bytesTransferred(long bytesTransferred) { }
+	};
+
+	@Param({ "256" })
+	public int largeFileMegabytes;
+
+	@Param({ "2000" })
+	public int smallFiles;
+
+	@Param({ "4" })
+	public int smallFileKilobytes;
+
+	@Param({ "1", "4" })
+	public int parallelConnections;
+
+	@Param({ "true", "false" })
+	public boolean zeroCopy;
+
+	private FtpServerFixture server;
+
+	private File largeFile;
+
+	private File smallFilesTree;
+
+	private FtpUploaderCommons uploader;
+
+	@Setup(Level.Trial)
+	public void startServer() throws Exception {
+		server = new FtpServerFixture();
+		server.start();
+		largeFile = server.createLocalFile("large.bin", largeFileMegabytes * 1024L * 1024L);
+		smallFilesTree = server.createLocalTree("small", smallFiles, smallFileKilobytes * 1024L);
+	}
+
+	@Setup(Level.Invocation)
+	public void connect() throws Exception {
+		server.clearRemote();
+		uploader = server.newUploader();
+		uploader.setParallelConnections(parallelConnections);
+		uploader.setZeroCopy(zeroCopy);
+		uploader.connect();
+	}
+
+	@TearDown(Level.Invocation)
+	public void disconnect() throws Exception {
+		uploader.disconnect();
+	}
+
+	@TearDown(Level.Trial)
+	public void stopServer() {
+		server.stop();
+	}
+
+	@Benchmark
+	public long largeFile() throws Exception {
+		return upload(largeFile);
+	}
+
+	@Benchmark
+	public long manySmallFiles() throws Exception {
+		return upload(smallFilesTree);
+	}
+
+	private long upload(File file) throws Exception {
+		final long[] total = new long[1];
+		uploader.upload(file, new FtpUploaderListener() {
+			@Override
+			public void bytesTransferred(long bytesTransferred) {
+				total[0] += bytesTransferred;
+			}
+		});
+		return total[0];
+	}
+
+}
@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * DownloadTask.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import java.io.File;
+
+/**
+ * A single remote file waiting to be downloaded, with its path (relative to
+ * the session root), its size and the local file it goes to.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+class DownloadTask {
+
+	private final String remoteName;
+
+	private final long size;
+
+	private final File destination;
+
+	public DownloadTask(String remoteName, long size, File destination) {
+		this.remoteName = remoteName;
+		this.size = size;
+		this.destination = destination;
+	}
+
+	public String getRemoteName() {
+		return remoteName;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public File getDestination() {
+		return destination;
+	}
+
+}
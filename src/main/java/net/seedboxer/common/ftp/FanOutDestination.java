@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * FanOutDestination.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A server the {@link FanOutUploader} replicates to, with the result of the
+ * last upload.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class FanOutDestination {
+
+	private final String server;
+
+	private final String username;
+
+	private final String password;
+
+	private final String remotePath;
+
+	private final boolean ssl;
+
+	private final AtomicLong bytesTransferred = new AtomicLong();
+
+	private volatile boolean completed;
+
+	private volatile Throwable error;
+
+	FanOutDestination(String server, String username, String password, String remotePath, boolean ssl) {
+		this.server = server;
+		this.username = username;
+		this.password = password;
+		this.remotePath = remotePath;
+		this.ssl = ssl;
+	}
+
+	public String getServer() {
+		return server;
+	}
+
+	public String getRemotePath() {
+		return remotePath;
+	}
+
+	/**
+	 * @return bytes of the file in the server, counting the ones already there
+	 */
+	public long getBytesTransferred() {
+		return bytesTransferred.get();
+	}
+
+	/**
+	 * @return true if the last upload completed
+	 */
+	public boolean isCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return why the last upload failed, or null
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	String getUsername() {
+		return username;
+	}
+
+	String getPassword() {
+		return password;
+	}
+
+	boolean isSsl() {
+		return ssl;
+	}
+
+	void reset() {
+		bytesTransferred.set(0);
+		completed = false;
+		error = null;
+	}
+
+	void bytesTransferred(long bytes) {
+		bytesTransferred.addAndGet(bytes);
+	}
+
+	void completed() {
+		completed = true;
+	}
+
+	/**
+	 * Keeps the first error.
+	 *
+	 * @return false if it had already failed
+	 */
+	synchronized boolean failed(Throwable error) {
+		if (this.error != null) {
+			return false;
+		}
+		this.error = error;
+		return true;
+	}
+
+}
@@ -0,0 +1,49 @@
+/*******************************************************************************
+ * FanOutListener.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+/**
+ * Progress of a {@link FanOutUploader}, reported separately for each
+ * destination. Called from the threads of the destinations, at the same
+ * time for different ones.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public interface FanOutListener {
+
+	/**
+	 * Bytes written to the destination, the part already in the server
+	 * is reported when the upload starts.
+	 */
+	void bytesTransferred(FanOutDestination destination, long bytesTransferred);
+
+	/**
+	 * The destination has the whole file.
+	 */
+	void destinationCompleted(FanOutDestination destination);
+
+	/**
+	 * The destination was dropped, the others go on.
+	 */
+	void destinationFailed(FanOutDestination destination, Throwable error);
+
+}
@@ -0,0 +1,522 @@
+/*******************************************************************************
+ * FanOutUploader.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.seedboxer.common.ftp.exception.AbortedTransferException;
+import net.seedboxer.common.ftp.exception.FtpException;
+import net.seedboxer.common.ftp.exception.FtpStalledException;
+import net.seedboxer.common.ftp.exception.FtpTransferException;
+import net.seedboxer.common.ftp.io.DataConnectionClient;
+import net.seedboxer.common.ftp.io.SocketTuning;
+
+import org.apache.commons.net.MalformedServerReplyException;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Uploads the same file to several servers reading it only once. Each
+ * chunk read is shared by every destination, each one has its own session
+ * and thread writing the chunks from a bounded queue. A destination whose
+ * queue stays full for longer than the stall timeout is dropped, so the
+ * reading never waits more than that for a slow server. Destinations
+ * resume from what they already have, the file is read from the smallest
+ * of those offsets.
+ * <p>
+ * Memory is bounded by the chunk size times the buffered chunks, the
+ * chunks are shared between the queues. Their buffers come from the pool
+ * of {@link FtpUploaderCommons}.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class FanOutUploader {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(FanOutUploader.class);
+
+	private final static Chunk END = new Chunk(new byte[0], 0, 0);
+
+	private final List<FanOutDestination> destinations = new ArrayList<FanOutDestination>();
+
+	private int chunkSize = 256 * 1024;
+
+	private int bufferedChunks = 64;
+
+	private long stallTimeout = 60 * 1000;
+
+	private SocketTuning socketTuning = SocketTuning.DEFAULT;
+
+	private final AtomicBoolean aborted = new AtomicBoolean(false);
+
+	/**
+	 * Adds a server to upload to, the file goes into the remote path.
+	 */
+	public FanOutDestination addDestination(String server, String username, String password,
+			String remotePath, boolean ssl) {
+		FanOutDestination destination = new FanOutDestination(server, username, password, remotePath, ssl);
+		destinations.add(destination);
+		return destination;
+	}
+
+	public List<FanOutDestination> getDestinations() {
+		return Collections.unmodifiableList(destinations);
+	}
+
+	/**
+	 * @param chunkSize bytes read at once (up to 16 MB)
+	 * @param bufferedChunks chunks a destination can fall behind the reading
+	 */
+	public void setBuffering(int chunkSize, int bufferedChunks) {
+		if (chunkSize < 1 || chunkSize > 16 * 1024 * 1024 || bufferedChunks < 1) {
+			throw new IllegalArgumentException("Invalid chunk size or buffered chunks");
+		}
+		this.chunkSize = chunkSize;
+		this.bufferedChunks = bufferedChunks;
+	}
+
+	/**
+	 * Time a destination can keep its queue full before it is dropped.
+	 *
+	 * @param stallTimeout millis
+	 */
+	public void setStallTimeout(long stallTimeout) {
+		this.stallTimeout = stallTimeout;
+	}
+
+	/**
+	 * Socket settings of the sessions: data buffer sizes, TCP_NODELAY on
+	 * the control connection, timeouts, passive or active mode and auto
+	 * tuning of the buffers. Defaults to {@link SocketTuning#DEFAULT}.
+	 *
+	 * @param socketTuning
+	 */
+	public void setSocketTuning(SocketTuning socketTuning) {
+		this.socketTuning = socketTuning != null ? socketTuning : SocketTuning.DEFAULT;
+	}
+
+	public void abort() {
+		aborted.set(true);
+	}
+
+	/**
+	 * Uploads the file to every destination. A destination that fails is
+	 * reported to the listener and does not stop the others.
+	 *
+	 * @return true if every destination has the whole file
+	 * @throws FtpException if the file could not be read
+	 */
+	public boolean upload(File file, FanOutListener listener) throws FtpException {
+		aborted.set(false);
+		long length = file.length();
+
+		List<Replica> replicas = new ArrayList<Replica>();
+		CountDownLatch opened = new CountDownLatch(destinations.size());
+		for (FanOutDestination destination : destinations) {
+			destination.reset();
+			replicas.add(new Replica(destination, file.getName(), length, opened, listener));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, replicas.size()));
+		for (Replica replica : replicas) {
+			executor.execute(replica);
+		}
+		executor.shutdown();
+
+		try {
+			opened.await();
+			send(file, length, replicas);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			stopAll(replicas, new AbortedTransferException());
+			throw new FtpTransferException(e);
+		} catch (IOException e) {
+			stopAll(replicas, e);
+			throw new FtpTransferException(e);
+		} catch (RuntimeException e) {
+			stopAll(replicas, e);
+			throw e;
+		} finally {
+			awaitReplicas(executor);
+		}
+
+		boolean completed = true;
+		for (FanOutDestination destination : destinations) {
+			completed &= destination.isCompleted();
+		}
+		return completed;
+	}
+
+	/**
+	 * Reads the file once, from the smallest offset of the destinations,
+	 * and queues every chunk to the destinations that still need it.
+	 */
+	private void send(File file, long length, List<Replica> replicas) throws IOException, InterruptedException {
+		long position = length;
+		for (Replica replica : replicas) {
+			if (replica.isActive()) {
+				position = Math.min(position, replica.offset);
+			}
+		}
+
+		FileInputStream ins = new FileInputStream(file);
+		try {
+			FileChannel channel = ins.getChannel();
+			while (position < length && hasActive(replicas)) {
+				checkAborted();
+				Chunk chunk = read(channel, position, (int) Math.min(chunkSize, length - position));
+				try {
+					for (Replica replica : replicas) {
+						if (replica.isActive() && chunk.end() > replica.offset) {
+							offer(replica, chunk);
+						}
+					}
+				} finally {
+					chunk.release();
+				}
+				position = chunk.end();
+			}
+		} finally {
+			ins.close();
+		}
+
+		for (Replica replica : replicas) {
+			if (replica.isActive()) {
+				offer(replica, END);
+			}
+		}
+	}
+
+	private Chunk read(FileChannel channel, long position, int size) throws IOException {
+		byte[] buffer = FtpUploaderCommons.BUFFER_POOL.acquire(size);
+		ByteBuffer data = ByteBuffer.wrap(buffer, 0, size);
+		while (data.hasRemaining()) {
+			if (channel.read(data, position + data.position()) < 0) {
+				FtpUploaderCommons.BUFFER_POOL.release(buffer);
+				throw new IOException("File truncated while uploading");
+			}
+		}
+		return new Chunk(buffer, position, size);
+	}
+
+	/**
+	 * Queues the chunk, dropping the destination if it does not take it
+	 * within the stall timeout.
+	 */
+	private void offer(Replica replica, Chunk chunk) throws InterruptedException {
+		chunk.retain();
+		if (!replica.queue.offer(chunk, stallTimeout, TimeUnit.MILLISECONDS)) {
+			chunk.release();
+			LOGGER.warn("Server {} stalled, dropping it", replica.destination.getServer());
+			replica.stop(new FtpStalledException());
+		}
+	}
+
+	private boolean hasActive(List<Replica> replicas) {
+		for (Replica replica : replicas) {
+			if (replica.isActive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void stopAll(List<Replica> replicas, Throwable error) {
+		for (Replica replica : replicas) {
+			if (replica.isActive()) {
+				replica.stop(error);
+			}
+		}
+	}
+
+	private void awaitReplicas(ExecutorService executor) {
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// wait for destinations
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void checkAborted() {
+		if (aborted.get()) {
+			throw new AbortedTransferException();
+		}
+	}
+
+	/**
+	 * Part of the file shared by the queues of the destinations, the buffer
+	 * goes back to the pool when the last one is done with it.
+	 */
+	private static class Chunk {
+
+		private final byte[] data;
+
+		private final long position;
+
+		private final int length;
+
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		public Chunk(byte[] data, long position, int length) {
+			this.data = data;
+			this.position = position;
+			this.length = length;
+		}
+
+		public long end() {
+			return position + length;
+		}
+
+		public void retain() {
+			references.incrementAndGet();
+		}
+
+		public void release() {
+			if (this != END && references.decrementAndGet() == 0) {
+				FtpUploaderCommons.BUFFER_POOL.release(data);
+			}
+		}
+	}
+
+	/**
+	 * Session of a destination, opens the upload and then writes the chunks
+	 * of its queue.
+	 */
+	private class Replica implements Runnable {
+
+		private final FanOutDestination destination;
+
+		private final String remoteName;
+
+		private final long length;
+
+		private final CountDownLatch opened;
+
+		private final FanOutListener listener;
+
+		private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(bufferedChunks);
+
+		private final FTPClient client;
+
+		private volatile Socket dataSocket;
+
+		private OutputStream outs;
+
+		private volatile boolean active;
+
+		/**
+		 * Bytes already in the server
+		 */
+		private long offset;
+
+		public Replica(FanOutDestination destination, String remoteName, long length,
+				CountDownLatch opened, FanOutListener listener) {
+			this.destination = destination;
+			this.remoteName = remoteName;
+			this.length = length;
+			this.opened = opened;
+			this.listener = listener;
+			// Keeps the data socket, so a stalled destination can be closed
+			// while its thread is blocked writing
+			this.client = FtpSessions.createClient(destination.isSsl(), true);
+		}
+
+		public boolean isActive() {
+			return active;
+		}
+
+		@Override
+		public void run() {
+			try {
+				try {
+					open();
+				} finally {
+					opened.countDown();
+				}
+				if (active) {
+					write();
+				}
+			} catch (Throwable e) {
+				failed(e);
+			} finally {
+				active = false;
+				Chunk chunk;
+				while ((chunk = queue.poll()) != null) {
+					chunk.release();
+				}
+				if (destination.getError() != null) {
+					FtpSessions.abandon(client);
+				} else {
+					FtpSessions.close(client);
+				}
+			}
+		}
+
+		private void open() throws IOException {
+			FtpSessions.open(client, destination.getServer(), destination.getUsername(), destination.getPassword(),
+					socketTuning);
+			if (destination.getRemotePath() != null && !client.changeWorkingDirectory(destination.getRemotePath())) {
+				throw new FtpTransferException();
+			}
+
+			Long size = remoteSize();
+			offset = size != null && size <= length ? size : 0;
+			if (offset > 0) {
+				bytesTransferred(offset);
+			}
+			if (offset == length && size != null) {
+				LOGGER.debug("File {} already in {}", remoteName, destination.getServer());
+				completed();
+				return;
+			}
+
+			client.setRestartOffset(offset);
+			dataSocket = ((DataConnectionClient) client).openDataConnection("STOR", remoteName);
+			if (dataSocket == null) {
+				throw new FtpTransferException();
+			}
+			outs = dataSocket.getOutputStream();
+			active = true;
+		}
+
+		private void write() throws IOException, InterruptedException {
+			Chunk chunk;
+			while ((chunk = queue.take()) != END) {
+				try {
+					if (!active) {
+						return;
+					}
+					int skip = (int) Math.max(0, offset - chunk.position);
+					outs.write(chunk.data, skip, chunk.length - skip);
+					bytesTransferred(chunk.length - skip);
+				} finally {
+					chunk.release();
+				}
+			}
+			if (!active) {
+				return;
+			}
+			dataSocket.close();
+			completeTransfer();
+
+			Long size = remoteSize();
+			if (size == null || size != length) {
+				LOGGER.debug("Remote size of {} in {} is {}, expected {}",
+						new Object[] { remoteName, destination.getServer(), size, length });
+				throw new FtpTransferException();
+			}
+			completed();
+		}
+
+		/**
+		 * Drops the destination, closing the data connection in case the
+		 * thread is blocked writing into it.
+		 */
+		public void stop(Throwable error) {
+			active = false;
+			failed(error);
+			Chunk chunk;
+			while ((chunk = queue.poll()) != null) {
+				chunk.release();
+			}
+			queue.offer(END);
+			Socket socket = dataSocket;
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) { /* ignore */ }
+			}
+		}
+
+		private void completeTransfer() throws IOException {
+			try {
+				if (!client.completePendingCommand()) {
+					throw new FtpTransferException();
+				}
+			} catch (MalformedServerReplyException e) {
+				if (!e.getMessage().toLowerCase().contains("ok") &&
+						!e.getMessage().toLowerCase().contains("complete")) {
+					throw e;
+				}
+			}
+		}
+
+		private Long remoteSize() throws IOException {
+			if (FTPReply.isPositiveCompletion(client.sendCommand("SIZE", remoteName))) {
+				String reply = client.getReplyString().trim();
+				try {
+					return Long.parseLong(reply.substring(reply.indexOf(' ') + 1).trim());
+				} catch (NumberFormatException e) {
+					LOGGER.debug("Invalid SIZE reply {}", reply);
+				}
+			}
+			return null;
+		}
+
+		private void bytesTransferred(long bytes) {
+			destination.bytesTransferred(bytes);
+			if (listener != null) {
+				listener.bytesTransferred(destination, bytes);
+			}
+		}
+
+		private void completed() {
+			destination.completed();
+			LOGGER.debug("File {} uploaded to {}", remoteName, destination.getServer());
+			if (listener != null) {
+				listener.destinationCompleted(destination);
+			}
+		}
+
+		private void failed(Throwable error) {
+			active = false;
+			if (destination.failed(error)) {
+				LOGGER.warn("Upload of {} to {} failed", new Object[] { remoteName, destination.getServer(), error });
+				if (listener != null) {
+					listener.destinationFailed(destination, error);
+				}
+			}
+		}
+	}
+
+}
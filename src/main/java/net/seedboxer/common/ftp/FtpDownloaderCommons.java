@@ -0,0 +1,861 @@
+/*******************************************************************************
+ * FtpDownloaderCommons.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.seedboxer.common.ftp.exception.AbortedTransferException;
+import net.seedboxer.common.ftp.exception.FtpConnectionException;
+import net.seedboxer.common.ftp.exception.FtpDownloadException;
+import net.seedboxer.common.ftp.exception.FtpException;
+import net.seedboxer.common.ftp.exception.FtpListFilesException;
+import net.seedboxer.common.ftp.exception.FtpTransferException;
+import net.seedboxer.common.ftp.io.SocketTuning;
+import net.seedboxer.common.ftp.io.TlsOptions;
+import net.seedboxer.common.ftp.listing.RemoteLister;
+import net.seedboxer.common.ftp.pool.FtpConnectionPool;
+import net.seedboxer.common.ftp.pool.FtpSessionFactory;
+import net.seedboxer.common.ftp.pool.FtpSessionKey;
+
+import org.apache.commons.net.MalformedServerReplyException;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of a FTP downloader using Apache Commons Net. Files are
+ * resumed from what is already in the destination and big files are split
+ * in segments downloaded in parallel (REST+RETR) into a preallocated
+ * partial file, whose progress is kept next to it.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class FtpDownloaderCommons implements FtpDownloader {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(FtpDownloaderCommons.class);
+
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private final static long STATE_CHECKPOINT = 16 * 1024 * 1024;
+
+	private final static String PART_SUFFIX = ".part";
+
+	private final static String STATE_SUFFIX = ".state";
+
+	private String server;
+
+	private String username;
+
+	private String password;
+
+	private String remotePath;
+
+	private boolean ssl;
+
+	private TlsOptions tlsOptions = TlsOptions.DEFAULT;
+
+	private SocketTuning socketTuning = SocketTuning.DEFAULT;
+
+	private int parallelConnections = 1;
+
+	private int fileSegments = 1;
+
+	private long segmentThreshold = 256 * 1024 * 1024;
+
+	private boolean restartSupported;
+
+	private boolean mlstSupported;
+
+	private FTPClient ftpClient;
+
+	private FtpConnectionPool connectionPool;
+
+	private boolean sessionBroken;
+
+	private final AtomicBoolean aborted = new AtomicBoolean(false);
+
+	@Override
+	public void configure(String server, String username, String password, String remotePath, boolean ssl) throws Exception {
+		this.ssl = ssl;
+		this.ftpClient = createClient();
+		this.server = server;
+		this.username = username;
+		this.password = password;
+		this.remotePath = remotePath;
+	}
+
+	/**
+	 * Number of sessions opened against the server when downloading a
+	 * directory. The tree is always listed through the main session.
+	 *
+	 * @param parallelConnections
+	 */
+	public void setParallelConnections(int parallelConnections) {
+		if (parallelConnections < 1) {
+			throw new IllegalArgumentException("At least one connection is needed");
+		}
+		this.parallelConnections = parallelConnections;
+	}
+
+	/**
+	 * Number of connections used to download a single big file. Files with
+	 * less than two times the segment threshold pending are always
+	 * downloaded through one connection, as well as every file when the
+	 * server does not advertise <code>REST STREAM</code>.
+	 *
+	 * @param fileSegments
+	 * @param segmentThreshold minimum size of each segment in bytes
+	 */
+	public void setFileSegments(int fileSegments, long segmentThreshold) {
+		if (fileSegments < 1 || segmentThreshold < 1) {
+			throw new IllegalArgumentException("Segments and threshold must be positive");
+		}
+		this.fileSegments = fileSegments;
+		this.segmentThreshold = segmentThreshold;
+	}
+
+	/**
+	 * Socket settings of the sessions: data buffer sizes, TCP_NODELAY on
+	 * the control connection, timeouts, passive or active mode and auto
+	 * tuning of the buffers. Defaults to {@link SocketTuning#DEFAULT}.
+	 *
+	 * @param socketTuning
+	 */
+	public void setSocketTuning(SocketTuning socketTuning) {
+		this.socketTuning = socketTuning != null ? socketTuning : SocketTuning.DEFAULT;
+	}
+
+	/**
+	 * FTPS options of the sessions when configured with <code>ssl</code>:
+	 * explicit or implicit TLS, PROT P or C, TLS session reuse on the data
+	 * connections and the preferred protocols and cipher suites. Defaults to
+	 * {@link TlsOptions#DEFAULT}.
+	 *
+	 * @param tlsOptions
+	 */
+	public void setTlsOptions(TlsOptions tlsOptions) {
+		this.tlsOptions = tlsOptions != null ? tlsOptions : TlsOptions.DEFAULT;
+		if (ssl) {
+			this.ftpClient = createClient();
+		}
+	}
+
+	/**
+	 * Leases the sessions from the given pool instead of opening (and
+	 * closing) a new one for every connection. The pool can be shared with
+	 * uploaders of the same server.
+	 *
+	 * @param connectionPool
+	 */
+	public void setConnectionPool(FtpConnectionPool connectionPool) {
+		this.connectionPool = connectionPool;
+	}
+
+	@Override
+	public void connect() throws FtpException {
+		// Every session starts a new run, forget a previous abort
+		aborted.set(false);
+		if (connectionPool != null) {
+			ftpClient = connectionPool.borrow(sessionKey(), sessionFactory());
+		} else {
+			FtpSessions.open(ftpClient, server, username, password, socketTuning);
+		}
+		sessionBroken = false;
+		try {
+			enterRemotePath(ftpClient);
+
+			boolean featuresKnown = ftpClient.features();
+			restartSupported = !featuresKnown || ftpClient.hasFeature("REST", "STREAM");
+			mlstSupported = featuresKnown && ftpClient.hasFeature("MLST");
+			LOGGER.debug("Server restart support: REST={} MLST={}", restartSupported, mlstSupported);
+		} catch (IOException e) {
+			sessionBroken = true;
+			throw new FtpConnectionException(e);
+		}
+	}
+
+	@Override
+	public void disconnect() throws FtpException {
+		releaseSession(ftpClient, !sessionBroken);
+	}
+
+	private FtpSessionKey sessionKey() {
+		return new FtpSessionKey(server, username, ssl ? tlsOptions : null);
+	}
+
+	private FtpSessionFactory sessionFactory() {
+		return new FtpSessionFactory() {
+			@Override
+			public FTPClient create() throws FtpException {
+				FTPClient client = createClient();
+				FtpSessions.open(client, server, username, password, socketTuning);
+				return client;
+			}
+		};
+	}
+
+	/**
+	 * Opens (or leases) an extra session placed in the remote path.
+	 */
+	private FTPClient acquireSession() throws FtpException {
+		FTPClient client;
+		if (connectionPool != null) {
+			client = connectionPool.borrow(sessionKey(), sessionFactory());
+		} else {
+			client = createClient();
+			FtpSessions.open(client, server, username, password, socketTuning);
+		}
+		try {
+			enterRemotePath(client);
+		} catch (IOException e) {
+			releaseSession(client, false);
+			throw new FtpConnectionException(e);
+		}
+		return client;
+	}
+
+	private void releaseSession(FTPClient client, boolean reusable) {
+		if (connectionPool == null) {
+			FtpSessions.close(client);
+		} else if (reusable) {
+			connectionPool.release(sessionKey(), client);
+		} else {
+			connectionPool.invalidate(sessionKey(), client);
+		}
+	}
+
+	private FTPClient createClient() {
+		return FtpSessions.createClient(ssl ? tlsOptions : null, false);
+	}
+
+	private void enterRemotePath(FTPClient client) throws IOException {
+		if (remotePath != null) {
+			LOGGER.debug("Moving to directory {}", remotePath);
+			client.changeWorkingDirectory(remotePath);
+		}
+	}
+
+	@Override
+	public void abort() throws FtpException {
+		aborted.set(true);
+	}
+
+	@Override
+	public void download(String remoteFile, File destination, FtpUploaderListener listener) throws FtpException {
+		// A failed download may leave the session in the middle of a command
+		sessionBroken = true;
+		try {
+			if (isDirectory(remoteFile)) {
+				downloadDirectory(remoteFile, destination, listener);
+			} else {
+				Long size = remoteSize(ftpClient, remoteFile);
+				if (size == null) {
+					throw new FtpDownloadException();
+				}
+				downloadFile(ftpClient, remoteFile, destination, size, listener);
+			}
+			sessionBroken = false;
+		} catch (FtpException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new FtpDownloadException(e);
+		}
+	}
+
+	/**
+	 * Tries to move into the entry (and back). MLST would tell the type
+	 * too, but the format of its single line reply is not reliable.
+	 */
+	private boolean isDirectory(String remoteFile) throws IOException {
+		String current = ftpClient.printWorkingDirectory();
+		if (!ftpClient.changeWorkingDirectory(remoteFile)) {
+			return false;
+		}
+		if (current == null || !ftpClient.changeWorkingDirectory(current)) {
+			throw new FtpDownloadException();
+		}
+		return true;
+	}
+
+	/**
+	 * Lists the remote tree through the main session, creating the local
+	 * directories, and then spreads the files between
+	 * {@link #parallelConnections} sessions. The main session is the first
+	 * of them, the others are only opened while the pool has room for them.
+	 */
+	private void downloadDirectory(String remoteDirectory, File destination,
+			FtpUploaderListener listener) throws IOException {
+
+		List<DownloadTask> tasks = new ArrayList<DownloadTask>();
+		planDirectory(remoteDirectory, destination, tasks);
+		if (tasks.isEmpty()) {
+			return;
+		}
+
+		if (parallelConnections == 1) {
+			for (DownloadTask task : tasks) {
+				checkAborted();
+				downloadFile(ftpClient, task.getRemoteName(), task.getDestination(), task.getSize(), listener);
+			}
+			return;
+		}
+
+		int workers = 1 + extraSessions(Math.min(parallelConnections, tasks.size()) - 1);
+		WorkStealingQueue<DownloadTask> queue = new WorkStealingQueue<DownloadTask>(tasks, workers);
+		FtpUploaderListener sharedListener = listener != null ? new SynchronizedListener(listener) : null;
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		LOGGER.debug("Downloading {} files through {} sessions", tasks.size(), workers);
+
+		ExecutorService executor = null;
+		if (workers > 1) {
+			executor = Executors.newFixedThreadPool(workers - 1);
+			for (int i = 1; i < workers; i++) {
+				executor.execute(new DownloadWorker(i, null, queue, sharedListener, failure));
+			}
+			executor.shutdown();
+		}
+
+		// The main session is worker 0
+		new DownloadWorker(0, ftpClient, queue, sharedListener, failure).run();
+
+		if (executor != null) {
+			awaitWorkers(executor);
+		}
+		rethrow(failure.get());
+	}
+
+	private void planDirectory(String remoteDirectory, File destination, List<DownloadTask> tasks) throws IOException {
+		checkAborted();
+		if (!destination.isDirectory() && !destination.mkdirs()) {
+			throw new FtpDownloadException();
+		}
+		for (FTPFile file : listFiles(remoteDirectory)) {
+			String name = file.getName();
+			if (name == null || RemoteLister.isSelfOrParent(file)) {
+				continue;
+			}
+			String remoteName = remoteDirectory + "/" + name;
+			if (file.isDirectory()) {
+				planDirectory(remoteName, new File(destination, name), tasks);
+			} else if (file.isFile()) {
+				tasks.add(new DownloadTask(remoteName, file.getSize(), new File(destination, name)));
+			}
+		}
+	}
+
+	/**
+	 * Sessions that can be opened besides the ones in use, at most the wanted
+	 * ones. With a connection pool, only as many as it can lease now.
+	 */
+	private int extraSessions(int wanted) {
+		if (connectionPool == null) {
+			return wanted;
+		}
+		return Math.max(0, Math.min(wanted, connectionPool.available(sessionKey())));
+	}
+
+	private void awaitWorkers(ExecutorService executor) throws FtpException {
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// wait for workers
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new FtpTransferException(e);
+		}
+	}
+
+	private void rethrow(Throwable error) throws IOException {
+		if (error instanceof IOException) {
+			throw (IOException) error;
+		} else if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error instanceof Error) {
+			throw (Error) error;
+		}
+	}
+
+	/**
+	 * Downloads the remote file, resuming from the local length.
+	 */
+	private void downloadFile(FTPClient client, String remoteName, File destination, long size,
+			FtpUploaderListener listener) throws IOException {
+
+		FtpUploaderEventListener events = listener instanceof FtpUploaderEventListener ?
+				(FtpUploaderEventListener) listener : null;
+		long offset = destination.isFile() ? destination.length() : 0;
+		if (offset > size || (offset > 0 && !restartSupported)) {
+			LOGGER.debug("Local file {} can not be resumed, downloading it again", destination);
+			offset = 0;
+		}
+
+		if (isSegmentable(size - offset) || partFile(destination).isFile()) {
+			downloadFileSegmented(client, remoteName, destination, offset, size, listener);
+		} else {
+			if (offset > 0) {
+				listener.bytesTransferred(offset);
+				if (offset == size) {
+					LOGGER.debug("File already downloaded {}", destination);
+					if (events != null) {
+						events.fileSkipped(destination);
+					}
+					return;
+				}
+				LOGGER.trace("Resuming file {} from {} MB", destination, (offset / (1024*1024)));
+				if (events != null) {
+					events.fileResumed(destination, offset);
+				}
+			} else if (events != null) {
+				events.fileStarted(destination);
+			}
+
+			RandomAccessFile file = new RandomAccessFile(destination, "rw");
+			try {
+				file.setLength(offset);
+				client.setRestartOffset(offset);
+				retrieveFile(client, remoteName, file.getChannel(), offset, size - offset, listener);
+				completeTransfer(client);
+			} finally {
+				file.close();
+			}
+		}
+
+		if (destination.length() != size) {
+			LOGGER.debug("Local size of {} is {}, expected {}", new Object[] { destination, destination.length(), size });
+			throw new FtpTransferException();
+		}
+		LOGGER.debug("File {} successfully downloaded", remoteName);
+		if (events != null) {
+			events.fileFinished(destination);
+		}
+	}
+
+	/**
+	 * True if the pending bytes are worth splitting between several sessions.
+	 */
+	private boolean isSegmentable(long pending) {
+		return fileSegments > 1 && restartSupported && pending >= 2 * segmentThreshold;
+	}
+
+	private static File partFile(File destination) {
+		return new File(destination.getPath() + PART_SUFFIX);
+	}
+
+	private static File stateFile(File destination) {
+		return new File(destination.getPath() + PART_SUFFIX + STATE_SUFFIX);
+	}
+
+	/**
+	 * Downloads the file in {@link #fileSegments} ranges with REST+RETR, into
+	 * a partial file of the final size. The given session downloads ranges
+	 * too, the others only get a session while the pool has room for it and
+	 * take the pending ranges from a shared queue.
+	 * A destination already there is taken as the first bytes of the file.
+	 * The position of every range is kept in a state file, so an interrupted
+	 * download resumes each range where it stopped. The partial file
+	 * replaces the destination once every range is complete.
+	 */
+	private void downloadFileSegmented(FTPClient client, String remoteName, File destination, long offset,
+			long size, FtpUploaderListener listener) throws IOException {
+
+		checkAborted();
+
+		File part = partFile(destination);
+		File stateFile = stateFile(destination);
+		if (part.isFile()) {
+			// Only the state file tells what is already in the partial file
+			offset = 0;
+		} else {
+			stateFile.delete();
+			if (offset > 0 && !destination.renameTo(part)) {
+				throw new FtpDownloadException();
+			}
+		}
+
+		int segments = (int) Math.max(1, Math.min(fileSegments, (size - offset) / segmentThreshold));
+		SegmentState state = SegmentState.open(stateFile, size, offset, segments);
+		RandomAccessFile file = new RandomAccessFile(part, "rw");
+		try {
+			file.setLength(size);
+			segments = state.getSegments();
+			LOGGER.debug("Downloading file {} in {} segments", remoteName, segments);
+
+			FtpUploaderEventListener events = listener instanceof FtpUploaderEventListener ?
+					(FtpUploaderEventListener) listener : null;
+			long done = state.getStart(0);
+			for (int i = 0; i < segments; i++) {
+				done += state.getPosition(i) - state.getStart(i);
+			}
+			if (done > 0) {
+				listener.bytesTransferred(done);
+				if (events != null) {
+					events.fileResumed(destination, done);
+				}
+			} else if (events != null) {
+				events.fileStarted(destination);
+			}
+
+			// The last range goes first, to the given session: it is the one
+			// that reads up to the end of the file and leaves it clean
+			List<Integer> pending = new ArrayList<Integer>();
+			for (int i = segments - 1; i >= 0; i--) {
+				if (state.getPosition(i) < state.getEnd(i)) {
+					pending.add(i);
+				}
+			}
+			int sessions = 1 + extraSessions(Math.max(1, pending.size()) - 1);
+			WorkStealingQueue<Integer> queue = new WorkStealingQueue<Integer>(pending, sessions);
+			FtpUploaderListener sharedListener = listener != null ? new SynchronizedListener(listener) : null;
+			AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+			FileChannel channel = file.getChannel();
+
+			ExecutorService executor = null;
+			if (sessions > 1) {
+				executor = Executors.newFixedThreadPool(sessions - 1);
+				for (int i = 1; i < sessions; i++) {
+					executor.execute(new SegmentWorker(i, null, remoteName, channel, state, queue, size,
+							sharedListener, failure));
+				}
+				executor.shutdown();
+			}
+
+			new SegmentWorker(0, client, remoteName, channel, state, queue, size, sharedListener, failure).run();
+
+			if (executor != null) {
+				awaitWorkers(executor);
+			}
+			rethrow(failure.get());
+		} finally {
+			file.close();
+			state.close();
+		}
+
+		if (part.length() != size) {
+			throw new FtpTransferException();
+		}
+		stateFile.delete();
+		if ((destination.exists() && !destination.delete()) || !part.renameTo(destination)) {
+			throw new FtpDownloadException();
+		}
+	}
+
+	/**
+	 * Opens the data connection (REST must be already set) and writes the
+	 * given bytes into the file channel from the position. The data is read
+	 * through the socket stream, which (unlike <code>transferFrom</code> on
+	 * a blocking channel) gives up after the data timeout.
+	 *
+	 * @return bytes written
+	 */
+	private long retrieveFile(FTPClient client, String remoteName, FileChannel file, long position, long size,
+			FtpUploaderListener listener) throws IOException {
+
+		InputStream ins = client.retrieveFileStream(remoteName);
+		if (ins == null) {
+			throw new FtpTransferException();
+		}
+		try {
+			return copy(ins, file, position, size, listener);
+		} finally {
+			ins.close();
+		}
+	}
+
+	private long copy(InputStream source, FileChannel dest, long position, long size,
+			FtpUploaderListener listener) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long total = 0;
+		while (total < size) {
+			checkAborted();
+			int bytes = source.read(buffer, 0, (int) Math.min(buffer.length, size - total));
+			if (bytes < 0) {
+				break;
+			}
+			ByteBuffer data = ByteBuffer.wrap(buffer, 0, bytes);
+			while (data.hasRemaining()) {
+				dest.write(data, position + total + data.position());
+			}
+			total += bytes;
+			if (listener != null) {
+				listener.bytesTransferred(bytes);
+			}
+		}
+		return total;
+	}
+
+	private void completeTransfer(FTPClient client) throws IOException {
+		try {
+			if (!client.completePendingCommand()) {
+				throw new FtpTransferException();
+			}
+		} catch (MalformedServerReplyException e) {
+			if (!e.getMessage().toLowerCase().contains("ok") &&
+					!e.getMessage().toLowerCase().contains("complete")) {
+				throw e;
+			}
+		}
+	}
+
+	private void checkAborted() {
+		if (aborted.get()) {
+			throw new AbortedTransferException();
+		}
+	}
+
+	/**
+	 * Size of the file in the server, or null if SIZE is not supported.
+	 */
+	private Long remoteSize(FTPClient client, String fileName) throws IOException {
+		if (FTPReply.isPositiveCompletion(client.sendCommand("SIZE", fileName))) {
+			String reply = client.getReplyString().trim();
+			try {
+				return Long.parseLong(reply.substring(reply.indexOf(' ') + 1).trim());
+			} catch (NumberFormatException e) {
+				LOGGER.debug("Invalid SIZE reply {}", reply);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Entries of the remote directory, with MLSD when the server supports it.
+	 */
+	private FTPFile[] listFiles(String path) throws FtpException {
+		int attempts = 0;
+		while (true){
+			try {
+				return mlstSupported ? ftpClient.mlistDir(path) : ftpClient.listFiles(path);
+			} catch (Exception e) {
+				attempts++;
+				if (attempts > 3) {
+					throw new FtpListFilesException(e);
+				} else {
+					LOGGER.trace("First attempt to get list of files FAILED! attempt={}", attempts);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Downloads files taken from the shared queue through the given session,
+	 * or through its own one when there is none.
+	 */
+	private class DownloadWorker implements Runnable {
+
+		private final int index;
+
+		/**
+		 * Session of the caller, not released here
+		 */
+		private final FTPClient session;
+
+		private final WorkStealingQueue<DownloadTask> queue;
+
+		private final FtpUploaderListener listener;
+
+		private final AtomicReference<Throwable> failure;
+
+		public DownloadWorker(int index, FTPClient session, WorkStealingQueue<DownloadTask> queue,
+				FtpUploaderListener listener, AtomicReference<Throwable> failure) {
+			this.index = index;
+			this.session = session;
+			this.queue = queue;
+			this.listener = listener;
+			this.failure = failure;
+		}
+
+		@Override
+		public void run() {
+			FTPClient client = null;
+			try {
+				client = session != null ? session : acquireSession();
+
+				DownloadTask task;
+				while (failure.get() == null && (task = queue.poll(index)) != null) {
+					checkAborted();
+					downloadFile(client, task.getRemoteName(), task.getDestination(), task.getSize(), listener);
+				}
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+				if (client != null && client != session) {
+					releaseSession(client, false);
+					client = null;
+				}
+			} finally {
+				if (client != null && client != session) {
+					releaseSession(client, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Downloads byte ranges of a file taken from the shared queue through the
+	 * given session, or through its own one when there is none. Ranges that
+	 * end before the file does close the data connection early, so an own
+	 * session is not reused after them.
+	 */
+	private class SegmentWorker implements Runnable {
+
+		private final int index;
+
+		/**
+		 * Session of the caller, not released here
+		 */
+		private final FTPClient session;
+
+		private final String remoteName;
+
+		private final FileChannel file;
+
+		private final SegmentState state;
+
+		private final WorkStealingQueue<Integer> queue;
+
+		private final long size;
+
+		private final FtpUploaderListener listener;
+
+		private final AtomicReference<Throwable> failure;
+
+		public SegmentWorker(int index, FTPClient session, String remoteName, FileChannel file, SegmentState state,
+				WorkStealingQueue<Integer> queue, long size, FtpUploaderListener listener,
+				AtomicReference<Throwable> failure) {
+			this.index = index;
+			this.session = session;
+			this.remoteName = remoteName;
+			this.file = file;
+			this.state = state;
+			this.queue = queue;
+			this.size = size;
+			this.listener = listener;
+			this.failure = failure;
+		}
+
+		@Override
+		public void run() {
+			FTPClient client = session;
+			try {
+				Integer segment;
+				while (failure.get() == null && (segment = queue.poll(index)) != null) {
+					if (client == null) {
+						client = acquireSession();
+						if (failure.get() != null) {
+							break;
+						}
+					}
+					checkAborted();
+					if (!download(client, segment) && client != session) {
+						releaseSession(client, false);
+						client = null;
+					}
+				}
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+				if (client != null && client != session) {
+					releaseSession(client, false);
+					client = null;
+				}
+			} finally {
+				if (client != null && client != session) {
+					releaseSession(client, true);
+				}
+			}
+		}
+
+		/**
+		 * @return true if the session read up to the end of the file
+		 */
+		private boolean download(FTPClient client, int segment) throws IOException {
+			long position = state.getPosition(segment);
+			long end = state.getEnd(segment);
+			LOGGER.trace("Downloading segment {}-{} of {}", new Object[] { position, end, remoteName });
+			client.setRestartOffset(position);
+			long written = retrieveFile(client, remoteName, file, position, end - position,
+					new CheckpointListener(segment, position, listener));
+			if (position + written != end) {
+				throw new FtpTransferException();
+			}
+			state.update(segment, end);
+			if (end == size) {
+				completeTransfer(client);
+				return true;
+			}
+			// The server sees the connection closed before the end
+			client.completePendingCommand();
+			return false;
+		}
+
+		/**
+		 * Records the position of the segment every {@link #STATE_CHECKPOINT} bytes.
+		 */
+		private class CheckpointListener implements FtpUploaderListener {
+
+			private final int segment;
+
+			private final FtpUploaderListener delegate;
+
+			private long position;
+
+			private long recorded;
+
+			public CheckpointListener(int segment, long position, FtpUploaderListener delegate) {
+				this.segment = segment;
+				this.position = position;
+				this.recorded = position;
+				this.delegate = delegate;
+			}
+
+			@Override
+			public void bytesTransferred(long bytesTransferred) {
+				position += bytesTransferred;
+				if (position - recorded >= STATE_CHECKPOINT) {
+					try {
+						state.update(segment, position);
+						recorded = position;
+					} catch (IOException e) {
+						LOGGER.debug("Segment state of {} could not be recorded", remoteName, e);
+					}
+				}
+				if (delegate != null) {
+					delegate.bytesTransferred(bytesTransferred);
+				}
+			}
+		}
+	}
+
+}
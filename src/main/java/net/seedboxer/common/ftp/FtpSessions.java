@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * FtpSessions.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import java.io.IOException;
+
+import net.seedboxer.common.ftp.exception.FtpConnectionException;
+import net.seedboxer.common.ftp.exception.FtpException;
+import net.seedboxer.common.ftp.exception.FtpInvalidLoginException;
+import net.seedboxer.common.ftp.io.SecureFtpClient;
+import net.seedboxer.common.ftp.io.SocketTuning;
+import net.seedboxer.common.ftp.io.TlsOptions;
+import net.seedboxer.common.ftp.io.ZeroCopyFtpClient;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Creation and login of the sessions used by the uploader and the downloader.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+final class FtpSessions {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(FtpSessions.class);
+
+	/**
+	 * NOOPs sent to measure the round trip time when auto tuning.
+	 */
+	private final static int ROUND_TRIP_PROBES = 3;
+
+	private FtpSessions() { }
+
+	/**
+	 * @param ssl implicit FTPS
+	 * @param zeroCopy plain sessions backed by socket channels
+	 */
+	static FTPClient createClient(boolean ssl, boolean zeroCopy) {
+		return createClient(ssl ? TlsOptions.DEFAULT : null, zeroCopy);
+	}
+
+	/**
+	 * @param tls FTPS options or null for plain FTP
+	 * @param zeroCopy plain sessions backed by socket channels
+	 */
+	static FTPClient createClient(TlsOptions tls, boolean zeroCopy) {
+		if (tls != null) {
+			return new SecureFtpClient(tls);
+		} else if (zeroCopy) {
+			return new ZeroCopyFtpClient();
+		} else {
+			return new FTPClient();
+		}
+	}
+
+	/**
+	 * Connects (the server may come as host:port), logs in and leaves the
+	 * session in binary mode, with the socket settings of the tuning.
+	 */
+	static void open(FTPClient client, String server, String username, String password,
+			SocketTuning tuning) throws FtpException {
+		try {
+
+			client.setDataTimeout(tuning.getDataTimeout());
+			client.setConnectTimeout(tuning.getConnectTimeout());
+			client.setDefaultTimeout(tuning.getIdleTimeout());
+			client.setSendDataSocketBufferSize(tuning.getSendBufferSize());
+			client.setReceieveDataSocketBufferSize(tuning.getReceiveBufferSize());
+			client.setBufferSize(tuning.getStreamBufferSize());
+
+			int colon = server.lastIndexOf(':');
+			if (colon > 0 && server.indexOf(':') == colon) {
+				client.connect(server.substring(0, colon), Integer.parseInt(server.substring(colon + 1)));
+			} else {
+				client.connect(server);
+			}
+			if (tuning.isControlNoDelay()) {
+				client.setTcpNoDelay(true);
+			}
+			if (tuning.isPassive()) {
+				client.enterLocalPassiveMode();
+			} else {
+				client.enterLocalActiveMode();
+			}
+			client.login(username, password);
+
+			int reply = client.getReplyCode();
+			if (FTPReply.isPositiveCompletion(reply)){
+				// Set ftp client configurations
+				client.setSoTimeout(tuning.getIdleTimeout());
+				client.setFileType(FTP.BINARY_FILE_TYPE);
+				if (client instanceof SecureFtpClient) {
+					((SecureFtpClient) client).protectDataChannel();
+				}
+				if (tuning.isAutoTuning()) {
+					autoTune(client, tuning);
+				}
+			} else {
+				client.disconnect();
+				throw new FtpInvalidLoginException();
+			}
+		} catch (IOException e) {
+			throw new FtpConnectionException(e);
+		}
+	}
+
+	/**
+	 * Sizes the data buffers left at the system default to the
+	 * bandwidth-delay product, with the best round trip time of a few NOOPs.
+	 */
+	private static void autoTune(FTPClient client, SocketTuning tuning) throws IOException {
+		long roundTripTime = Long.MAX_VALUE;
+		for (int i = 0; i < ROUND_TRIP_PROBES; i++) {
+			long started = System.nanoTime();
+			client.sendNoOp();
+			roundTripTime = Math.min(roundTripTime, System.nanoTime() - started);
+		}
+		int size = tuning.bufferSizeFor(roundTripTime);
+		if (tuning.getSendBufferSize() == 0) {
+			client.setSendDataSocketBufferSize(size);
+		}
+		if (tuning.getReceiveBufferSize() == 0) {
+			client.setReceieveDataSocketBufferSize(size);
+		}
+		LOGGER.debug("Round trip time of {} us, data buffers of {} bytes", roundTripTime / 1000, size);
+	}
+
+	static void close(FTPClient client) {
+		try {
+			client.logout();
+			if (client.isConnected()) {
+				client.disconnect();
+			}
+		} catch (IOException e) { /*ignore */ }
+	}
+
+	/**
+	 * Drops the connection without QUIT, for sessions in the middle of a
+	 * command whose reply may never come.
+	 */
+	static void abandon(FTPClient client) {
+		try {
+			if (client.isConnected()) {
+				client.disconnect();
+			}
+		} catch (IOException e) { /*ignore */ }
+	}
+
+}
@@ -21,33 +21,71 @@
 package net.seedboxer.common.ftp;
 
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import net.seedboxer.common.ftp.exception.AbortedTransferException;
+import net.seedboxer.common.ftp.exception.FtpChecksumException;
 import net.seedboxer.common.ftp.exception.FtpConnectionException;
 import net.seedboxer.common.ftp.exception.FtpException;
-import net.seedboxer.common.ftp.exception.FtpInvalidLoginException;
 import net.seedboxer.common.ftp.exception.FtpListFilesException;
 import net.seedboxer.common.ftp.exception.FtpTransferException;
-import net.seedboxer.common.ftp.filter.DirectoryFileFilter;
-import net.seedboxer.common.ftp.filter.NormalFileFilter;
+import net.seedboxer.common.ftp.io.AdaptiveBufferSize;
+import net.seedboxer.common.ftp.io.BufferPool;
+import net.seedboxer.common.ftp.io.CompressionPolicy;
+import net.seedboxer.common.ftp.io.ReadAheadReader;
+import net.seedboxer.common.ftp.io.RemoteChecksum;
+import net.seedboxer.common.ftp.io.SampledCompressionPolicy;
+import net.seedboxer.common.ftp.io.TransferDigest;
+import net.seedboxer.common.ftp.io.SocketTuning;
+import net.seedboxer.common.ftp.io.TlsOptions;
+import net.seedboxer.common.ftp.io.ZeroCopyFtpClient;
+import net.seedboxer.common.ftp.journal.TransferJournal;
+import net.seedboxer.common.ftp.journal.TransferJournal.PendingFile;
+import net.seedboxer.common.ftp.limit.BandwidthLimiter;
+import net.seedboxer.common.ftp.limit.Throttle;
+import net.seedboxer.common.ftp.listing.ListingCache;
+import net.seedboxer.common.ftp.listing.RemoteLister;
+import net.seedboxer.common.ftp.listing.RemoteListing;
+import net.seedboxer.common.ftp.metrics.FtpMetrics;
+import net.seedboxer.common.ftp.metrics.SessionMetrics;
+import net.seedboxer.common.ftp.pool.FtpConnectionPool;
+import net.seedboxer.common.ftp.pool.FtpSessionFactory;
+import net.seedboxer.common.ftp.pool.FtpSessionKey;
+import net.seedboxer.common.ftp.retry.RetryPolicy;
+import net.seedboxer.common.ftp.scan.LocalTreeScanner;
+import net.seedboxer.common.ftp.scan.LocalTreeScanner.Entry;
+import net.seedboxer.common.ftp.sync.SyncIndex;
 
 import org.apache.commons.net.MalformedServerReplyException;
-import org.apache.commons.net.ftp.FTP;
 import org.apache.commons.net.ftp.FTPClient;
-import org.apache.commons.net.ftp.FTPClientConfig;
-import org.apache.commons.net.ftp.FTPFile;
-import org.apache.commons.net.ftp.FTPListParseEngine;
 import org.apache.commons.net.ftp.FTPReply;
-import org.apache.commons.net.ftp.FTPSClient;
 import org.apache.commons.net.io.CopyStreamAdapter;
 import org.apache.commons.net.io.CopyStreamException;
 import org.apache.commons.net.io.CopyStreamListener;
@@ -65,11 +103,33 @@ public class FtpUploaderCommons implements FtpUploader {
 
 	private final static Logger LOGGER = LoggerFactory.getLogger(FtpUploaderCommons.class);
 
-	private final static int TIMEOUT = 2 * 60 * 1000;
+	private final static int DEFAULT_BUFFER_SIZE = 64 * 1024;
 
-	private final static FileFilter directoryFileFilter = new DirectoryFileFilter();
+	private final static int MIN_BUFFER_SIZE = 8 * 1024;
 
-	private final static FileFilter normalFileFilter = new NormalFileFilter();
+	private final static int MAX_BUFFER_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * Copy buffers, also used by {@link FanOutUploader}
+	 */
+	final static BufferPool BUFFER_POOL = new BufferPool(32);
+
+	private final static long JOURNAL_CHECKPOINT = 16 * 1024 * 1024;
+
+	private final static int TRANSFER_CHUNK = 1024 * 1024;
+
+	private final static long READ_AHEAD_THRESHOLD = 1024 * 1024;
+
+	private final static long MAX_THROTTLE_SLEEP = 100 * 1000 * 1000;
+
+	private final static int SCAN_QUEUE_SIZE = 1024;
+
+	private final static long MODIFIED_TOLERANCE = 1000;
+
+	/**
+	 * Listing of the directories skipped by the sync index.
+	 */
+	private final static RemoteListing UNCHANGED = new RemoteListing(1);
 
 	private String server;
 
@@ -79,66 +139,483 @@ public class FtpUploaderCommons implements FtpUploader {
 
 	private String remotePath;
 
+	private boolean ssl;
+
+	private TlsOptions tlsOptions = TlsOptions.DEFAULT;
+
+	private SocketTuning socketTuning = SocketTuning.DEFAULT;
+
+	private int parallelConnections = 1;
+
+	private int fileSegments = 1;
+
+	private long segmentThreshold = 256 * 1024 * 1024;
+
+	private boolean restartSupported;
+
+	private boolean appendOnly;
+
+	private boolean zeroCopy = true;
+
+	private int readAheadBuffers = 2;
+
+	private boolean verifyChecksums;
+
+	private boolean reuploadOnMismatch;
+
+	private RemoteChecksum remoteChecksum;
+
+	private int compressionLevel;
+
+	private CompressionPolicy compressionPolicy = new SampledCompressionPolicy();
+
+	private boolean deflateSupported;
+
+	private boolean sync;
+
+	private boolean deleteRemoved;
+
+	private SyncIndex syncIndex;
+
+	private RetryPolicy retryPolicy;
+
+	private boolean mdtmSupported;
+
+	private boolean mfmtSupported;
+
+	/**
+	 * Sessions in MODE Z
+	 */
+	private final Set<FTPClient> deflating = Collections.newSetFromMap(new ConcurrentHashMap<FTPClient, Boolean>());
+
 	private FTPClient ftpClient;
 
+	private FtpConnectionPool connectionPool;
+
+	private boolean sessionBroken;
+
+	private TransferJournal journal;
+
+	private ListingCache listingCache;
+
+	private String journalRoot;
+
 	private String type;
 
+	private RemoteLister lister;
+
+	private BandwidthLimiter bandwidthLimiter;
+
+	/**
+	 * Bandwidth limit of the running upload call
+	 */
+	private Throttle jobThrottle;
+
+	private FtpMetrics metrics;
+
+	private final ConcurrentMap<FTPClient, SessionMetrics> leases = new ConcurrentHashMap<FTPClient, SessionMetrics>();
+
 	private final AtomicBoolean aborted = new AtomicBoolean(false);
 
 	@Override
 	public void configure(String server, String username, String password, String remotePath, boolean ssl) throws Exception {
-		if (ssl) {
-			this.ftpClient = new FTPSClient("SSL", true);
-		} else {			
-			this.ftpClient = new FTPClient();
-		}
+		this.ssl = ssl;
+		this.ftpClient = createClient();
 		this.server = server;
 		this.username = username;
 		this.password = password;
 		this.remotePath = remotePath;
 	}
 
+	/**
+	 * Number of sessions opened against the server when uploading a directory.
+	 * With more than one connection the files of the tree are spread between
+	 * the sessions, the default (1) uploads everything through the main session.
+	 *
+	 * @param parallelConnections
+	 */
+	public void setParallelConnections(int parallelConnections) {
+		if (parallelConnections < 1) {
+			throw new IllegalArgumentException("At least one connection is needed");
+		}
+		this.parallelConnections = parallelConnections;
+	}
+
+	/**
+	 * Number of connections used to upload a single big file. Files with
+	 * less than two times the segment threshold pending are always uploaded
+	 * through one connection, as well as every file when the server does not
+	 * advertise <code>REST STREAM</code>.
+	 *
+	 * @param fileSegments
+	 * @param segmentThreshold minimum size of each segment in bytes
+	 */
+	public void setFileSegments(int fileSegments, long segmentThreshold) {
+		if (fileSegments < 1 || segmentThreshold < 1) {
+			throw new IllegalArgumentException("Segments and threshold must be positive");
+		}
+		this.fileSegments = fileSegments;
+		this.segmentThreshold = segmentThreshold;
+	}
+
+	/**
+	 * Sends the files straight from the file channel to the data socket
+	 * (<code>transferTo</code>) on plain FTP sessions in passive mode.
+	 * Enabled by default, TLS sessions always copy through the stream.
+	 *
+	 * @param zeroCopy
+	 */
+	public void setZeroCopy(boolean zeroCopy) {
+		this.zeroCopy = zeroCopy;
+	}
+
+	/**
+	 * Socket settings of the sessions: data buffer sizes, TCP_NODELAY on
+	 * the control connection, timeouts, passive or active mode and auto
+	 * tuning of the buffers. Defaults to {@link SocketTuning#DEFAULT}.
+	 *
+	 * @param socketTuning
+	 */
+	public void setSocketTuning(SocketTuning socketTuning) {
+		this.socketTuning = socketTuning != null ? socketTuning : SocketTuning.DEFAULT;
+	}
+
+	/**
+	 * FTPS options of the sessions when configured with <code>ssl</code>:
+	 * explicit or implicit TLS, PROT P or C, TLS session reuse on the data
+	 * connections and the preferred protocols and cipher suites. Defaults to
+	 * {@link TlsOptions#DEFAULT}.
+	 *
+	 * @param tlsOptions
+	 */
+	public void setTlsOptions(TlsOptions tlsOptions) {
+		this.tlsOptions = tlsOptions != null ? tlsOptions : TlsOptions.DEFAULT;
+		if (ssl) {
+			this.ftpClient = createClient();
+		}
+	}
+
+	/**
+	 * Buffers read ahead of the socket when a file (of at least 1 MB) goes
+	 * through the stream copy (TLS, compression or checksums), so the disk
+	 * reads overlap the writes and the encryption. The default (2) double
+	 * buffers, less than 2 reads and writes in the same thread.
+	 *
+	 * @param readAheadBuffers
+	 */
+	public void setReadAhead(int readAheadBuffers) {
+		this.readAheadBuffers = readAheadBuffers;
+	}
+
+	/**
+	 * Leases the sessions from the given pool instead of opening (and
+	 * closing) a new one for every connection.
+	 *
+	 * @param connectionPool
+	 */
+	public void setConnectionPool(FtpConnectionPool connectionPool) {
+		this.connectionPool = connectionPool;
+	}
+
+	/**
+	 * Verifies every uploaded file against the checksum computed by the
+	 * server (HASH, XSHA1, XMD5 or XCRC, whatever FEAT advertises). The local
+	 * digest is computed while the file is sent, so verified files are
+	 * always copied through the stream instead of <code>transferTo</code>.
+	 * A mismatch throws {@link FtpChecksumException}, or uploads the file
+	 * once again if <code>reupload</code> is set.
+	 *
+	 * @param verify
+	 * @param reupload
+	 */
+	public void setChecksumVerification(boolean verify, boolean reupload) {
+		this.verifyChecksums = verify;
+		this.reuploadOnMismatch = reupload;
+	}
+
+	/**
+	 * Sends the files compressed with deflate (MODE Z) when the server
+	 * supports it. Only files uploaded from the beginning and in a single
+	 * segment are compressed, and only if the compression policy says so
+	 * (by default a sample of the file must shrink, see
+	 * {@link SampledCompressionPolicy}).
+	 *
+	 * @param compressionLevel deflate level from 1 to 9, 0 disables it
+	 */
+	public void setCompression(int compressionLevel) {
+		if (compressionLevel < 0 || compressionLevel > 9) {
+			throw new IllegalArgumentException("Compression level must be between 0 and 9");
+		}
+		this.compressionLevel = compressionLevel;
+	}
+
+	/**
+	 * Decides which files are compressed when compression is enabled.
+	 *
+	 * @param compressionPolicy
+	 */
+	public void setCompressionPolicy(CompressionPolicy compressionPolicy) {
+		this.compressionPolicy = compressionPolicy;
+	}
+
+	/**
+	 * Synchronizes the remote tree with the local one. Files are compared by
+	 * size and modification time (MLSD facts, or MDTM when the listing has
+	 * no times) and the ones changed locally since they were uploaded are
+	 * sent again from the beginning instead of being skipped or resumed.
+	 * Uploaded files get the local modification time when the server
+	 * supports MFMT.
+	 *
+	 * @param sync
+	 * @param deleteRemoved delete the remote entries that are no longer in the local tree
+	 * @param syncIndex skips the directories unchanged since the last sync, may be null
+	 */
+	public void setSync(boolean sync, boolean deleteRemoved, SyncIndex syncIndex) {
+		this.sync = sync;
+		this.deleteRemoved = sync && deleteRemoved;
+		this.syncIndex = sync ? syncIndex : null;
+	}
+
+	/**
+	 * Retries the files whose upload fails: the session is connected again
+	 * and placed in the remote path, and the file resumes from the size
+	 * confirmed by the server (SIZE). Files uploaded in segments start again
+	 * from where the failed attempt started. Listings are retried the same
+	 * way. Retries are reported to a {@link FtpUploaderEventListener}.
+	 * Files the server refuses with a permanent reply (5xx, except 552 for
+	 * exceeded storage) are not retried. Without a policy a failed file
+	 * fails the whole upload.
+	 *
+	 * @param retryPolicy
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	/**
+	 * Limits the bandwidth of the uploads. The same limiter can be shared
+	 * by several uploaders, see {@link BandwidthLimiter}. Each upload call
+	 * is one job for its job rate.
+	 *
+	 * @param bandwidthLimiter
+	 */
+	public void setBandwidthLimiter(BandwidthLimiter bandwidthLimiter) {
+		this.bandwidthLimiter = bandwidthLimiter;
+	}
+
+	/**
+	 * Reports the latency of every control command, the data transfers, the
+	 * throughput of each file, the bytes of each session and the retries to
+	 * the given sink.
+	 *
+	 * @param metrics
+	 */
+	public void setMetrics(FtpMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Records the progress of the uploads in the given journal. When an
+	 * upload is started again after a crash, the directories and files in
+	 * the journal are not listed again, only the files that were being
+	 * uploaded are checked with SIZE. The journal is cleared when the
+	 * upload completes.
+	 *
+	 * @param journal
+	 */
+	public void setJournal(TransferJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Takes the remote directory listings from the given cache, shared with
+	 * other uploaders of the same server and user, and keeps it updated with
+	 * the files and directories uploaded. The journal, when set, is still
+	 * the first source.
+	 *
+	 * @param listingCache
+	 */
+	public void setListingCache(ListingCache listingCache) {
+		this.listingCache = listingCache;
+	}
+
 	@Override
 	public void connect() throws FtpException {
+		// Every session starts a new run, forget a previous abort
+		aborted.set(false);
+		if (connectionPool != null) {
+			ftpClient = connectionPool.borrow(sessionKey(), sessionFactory());
+		} else {
+			openSession(ftpClient);
+		}
+		startLease(ftpClient);
+		sessionBroken = false;
 		try {
+			enterRemotePath(ftpClient);
 
-			ftpClient.setDataTimeout(TIMEOUT);
-			ftpClient.setConnectTimeout(TIMEOUT);
-			ftpClient.setDefaultTimeout(TIMEOUT);
+			type = ftpClient.getSystemType().toUpperCase();
 
-			ftpClient.connect(server);
-			ftpClient.enterLocalPassiveMode();
-			ftpClient.login(username, password);
+			// Servers without FEAT are assumed to support REST as before
+			boolean featuresKnown = ftpClient.features();
+			restartSupported = featuresKnown && ftpClient.hasFeature("REST", "STREAM");
+			appendOnly = featuresKnown && !restartSupported;
+			LOGGER.debug("Server restart support: REST={} APPE only={}", restartSupported, appendOnly);
 
-			int reply = ftpClient.getReplyCode();
-			if (FTPReply.isPositiveCompletion(reply)){
+			// MLST in FEAT implies MLSD (RFC 3659)
+			lister = new RemoteLister(type.startsWith("UNIX"), featuresKnown && ftpClient.hasFeature("MLST"));
+
+			remoteChecksum = null;
+			if (verifyChecksums && featuresKnown) {
+				remoteChecksum = RemoteChecksum.detect(ftpClient);
+			}
+			if (verifyChecksums && remoteChecksum == null) {
+				LOGGER.warn("Server {} does not support checksums, uploads will not be verified", server);
+			}
 
-				type = ftpClient.getSystemType().toUpperCase();
+			mdtmSupported = featuresKnown && ftpClient.hasFeature("MDTM");
+			mfmtSupported = featuresKnown && ftpClient.hasFeature("MFMT");
 
-				if (remotePath != null) {
-					LOGGER.debug("Moving to directory {}", remotePath);
-					ftpClient.changeWorkingDirectory(remotePath);
-				}
-				// Set ftp client configurations
-				ftpClient.setSoTimeout(TIMEOUT);
-				ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
-			} else {
-				ftpClient.disconnect();
-				throw new FtpInvalidLoginException();
+			deflateSupported = compressionLevel > 0 && featuresKnown && ftpClient.hasFeature("MODE", "Z");
+			if (compressionLevel > 0 && !deflateSupported) {
+				LOGGER.debug("Server {} does not support MODE Z, uploads will not be compressed", server);
 			}
 		} catch (IOException e) {
+			sessionBroken = true;
 			throw new FtpConnectionException(e);
 		}
 	}
 
 	@Override
 	public void disconnect() throws FtpException {
+		releaseSession(ftpClient, !sessionBroken);
+	}
+
+	private FtpSessionKey sessionKey() {
+		return new FtpSessionKey(server, username, ssl ? tlsOptions : null);
+	}
+
+	private FtpSessionFactory sessionFactory() {
+		return new FtpSessionFactory() {
+			@Override
+			public FTPClient create() throws FtpException {
+				FTPClient client = createClient();
+				openSession(client);
+				return client;
+			}
+		};
+	}
+
+	/**
+	 * Opens (or leases) an extra session placed in the remote path.
+	 */
+	private FTPClient acquireSession() throws FtpException {
+		FTPClient client;
+		if (connectionPool != null) {
+			client = connectionPool.borrow(sessionKey(), sessionFactory());
+		} else {
+			client = createClient();
+			openSession(client);
+		}
+		startLease(client);
+		try {
+			enterRemotePath(client);
+		} catch (IOException e) {
+			releaseSession(client, false);
+			throw new FtpConnectionException(e);
+		}
+		return client;
+	}
+
+	private void releaseSession(FTPClient client, boolean reusable) {
+		endLease(client);
+		if (deflating.contains(client)) {
+			try {
+				reusable = reusable && setDeflate(client, false);
+			} catch (IOException e) {
+				reusable = false;
+			}
+			deflating.remove(client);
+		}
+		if (connectionPool == null) {
+			closeSession(client);
+		} else if (reusable) {
+			connectionPool.release(sessionKey(), client);
+		} else {
+			connectionPool.invalidate(sessionKey(), client);
+		}
+	}
+
+	/**
+	 * Starts timing the commands of the session, if there are metrics.
+	 */
+	private void startLease(FTPClient client) {
+		if (metrics != null) {
+			SessionMetrics session = new SessionMetrics(metrics, server);
+			client.addProtocolCommandListener(session);
+			leases.put(client, session);
+		}
+	}
+
+	private void endLease(FTPClient client) {
+		SessionMetrics session = leases.remove(client);
+		if (session != null) {
+			client.removeProtocolCommandListener(session);
+			session.released();
+		}
+	}
+
+	private FTPClient createClient() {
+		return FtpSessions.createClient(ssl ? tlsOptions : null, zeroCopy);
+	}
+
+	private void openSession(FTPClient client) throws FtpException {
+		long started = System.nanoTime();
 		try {
-			ftpClient.logout();
-			if (ftpClient.isConnected()) {
-				ftpClient.disconnect();
+			FtpSessions.open(client, server, username, password, socketTuning);
+		} finally {
+			if (metrics != null) {
+				metrics.commandCompleted("CONNECT", client.getReplyCode(), System.nanoTime() - started);
+			}
+		}
+	}
+
+	/**
+	 * Connects the session again (the same client, so it stays leased and
+	 * timed) and places it back in the remote path.
+	 */
+	private void reconnect(FTPClient client) throws IOException {
+		FtpSessions.abandon(client);
+		deflating.remove(client);
+		openSession(client);
+		enterRemotePath(client);
+	}
+
+	/**
+	 * Waits the given millis, checking the abort flag.
+	 */
+	private void backoff(long millis) {
+		long deadline = System.currentTimeMillis() + millis;
+		long left;
+		while ((left = deadline - System.currentTimeMillis()) > 0) {
+			checkAborted();
+			try {
+				Thread.sleep(Math.min(left, 100));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AbortedTransferException();
 			}
-		} catch (IOException e) { /*ignore */ }
+		}
+	}
+
+	private void enterRemotePath(FTPClient client) throws IOException {
+		if (remotePath != null) {
+			LOGGER.debug("Moving to directory {}", remotePath);
+			client.changeWorkingDirectory(remotePath);
+		}
+	}
+
+	private void closeSession(FTPClient client) {
+		FtpSessions.close(client);
 	}
 
 	@Override
@@ -148,120 +625,915 @@ public class FtpUploaderCommons implements FtpUploader {
 
 	@Override
 	public void upload(File fileToUpload, FtpUploaderListener listener) throws FtpException {
+		// A failed upload may leave the session in the middle of a command
+		sessionBroken = true;
 		try {
-			Map<String, Long> filesInServer = listFiles();
+			String parent = fileToUpload.getAbsoluteFile().getParent();
+			journalRoot = parent != null ? parent : "";
+			jobThrottle = bandwidthLimiter != null ? bandwidthLimiter.open(server) : null;
+			RemoteListing filesInServer = listDirectory("");
 			if (fileToUpload.isDirectory()) {
-				uploadDirectory(fileToUpload, filesInServer, listener);
+				if (parallelConnections > 1) {
+					uploadDirectoryParallel(fileToUpload, filesInServer, listener);
+				} else {
+					uploadDirectory(fileToUpload, filesInServer, listener);
+				}
 			} else {
-				uploadFile(fileToUpload, filesInServer, listener);
+				long length = fileToUpload.length();
+				uploadFile(ftpClient, fileToUpload, length, "",
+						syncedSize(filesInServer, fileToUpload, length, ""), listener);
+			}
+			if (journal != null) {
+				journal.clear();
 			}
+			if (syncIndex != null && fileToUpload.isDirectory()) {
+				syncIndex.save(server, username, cachePath(journalKey(fileToUpload)));
+			}
+			sessionBroken = false;
 		} catch (FtpException e) {
 			throw e;
 		} catch (IOException e) {
 			throw new FtpTransferException(e);
+		} finally {
+			jobThrottle = null;
 		}
 	}
 
-	private void uploadDirectory(File directoryToUpload, Map<String, Long> filesInServer,
+	private void uploadDirectory(File directoryToUpload, RemoteListing filesInServer,
 			FtpUploaderListener listener) throws IOException {
 
-		checkAborted();
-		
-		// Create the directory if it was not created
-		boolean exist = filesInServer.containsKey(directoryToUpload.getName());
-		if (!exist) {
-			try {
-				LOGGER.debug(""+ftpClient.makeDirectory(directoryToUpload.getName()));
-				LOGGER.debug("Directory created! {}", directoryToUpload.getName());
-			} catch (Exception e){
-				LOGGER.debug("Could not create directory, may be it already exist");
+		// The tree is read in background while the files are uploaded
+		LocalTreeScanner scanner = new LocalTreeScanner(directoryToUpload, SCAN_QUEUE_SIZE);
+		scanner.start();
+		try {
+			Deque<RemoteListing> parents = new ArrayDeque<RemoteListing>();
+			RemoteListing filesInServerDirectory = filesInServer;
+			String path = "";
+			Entry entry;
+			while ((entry = scanner.next()) != null) {
+				switch (entry.getKind()) {
+				case DIRECTORY:
+					parents.push(filesInServerDirectory);
+					path = journalKey(entry.getFile());
+					filesInServerDirectory = prepareDirectory(entry, filesInServerDirectory);
+					break;
+				case FILE:
+					uploadFile(ftpClient, entry.getFile(), entry.getLength(), path,
+							syncedSize(filesInServerDirectory, entry.getFile(), entry.getLength(), path), listener);
+					break;
+				case END_DIRECTORY:
+					filesInServerDirectory = parents.pop();
+					path = parentPath(path);
+					break;
+				}
 			}
+		} finally {
+			scanner.close();
 		}
-		// Change to the directory
-		LOGGER.debug("Moving to directory {}", directoryToUpload.getName());
-		ftpClient.changeWorkingDirectory(directoryToUpload.getName());
+	}
 
-		// Check the files inside the directory
-		Map<String, Long> filesInServerDirectory;
-		if (!exist){
-			filesInServerDirectory = Collections.emptyMap();
-		}else{
-			filesInServerDirectory = listFiles();
+	/**
+	 * Creates the remote tree through the main session, in the same order the
+	 * sequential upload would do it, and then spreads the files between
+	 * {@link #parallelConnections} sessions. The main session is the first
+	 * of them, the others are only opened while the pool has room for them.
+	 */
+	private void uploadDirectoryParallel(File directoryToUpload, RemoteListing filesInServer,
+			FtpUploaderListener listener) throws IOException {
+
+		List<UploadTask> tasks = new ArrayList<UploadTask>();
+		planDirectory(directoryToUpload, filesInServer, tasks);
+		if (tasks.isEmpty()) {
+			return;
 		}
 
-		// Upload all directories first
-		for (File childFile : directoryToUpload.listFiles(directoryFileFilter)){
-			uploadDirectory(childFile, filesInServerDirectory, listener);
+		int workers = 1 + extraSessions(Math.min(parallelConnections, tasks.size()) - 1);
+		WorkStealingQueue<UploadTask> queue = new WorkStealingQueue<UploadTask>(tasks, workers);
+		FtpUploaderListener sharedListener = listener != null ? new SynchronizedListener(listener) : null;
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		LOGGER.debug("Uploading {} files through {} sessions", tasks.size(), workers);
+
+		ExecutorService executor = null;
+		if (workers > 1) {
+			executor = Executors.newFixedThreadPool(workers - 1);
+			for (int i = 1; i < workers; i++) {
+				executor.execute(new UploadWorker(i, null, queue, sharedListener, failure));
+			}
+			executor.shutdown();
 		}
-		// Upload all files
-		for (File childFile : directoryToUpload.listFiles(normalFileFilter)){
-			uploadFile(childFile, filesInServerDirectory, listener);
+
+		// The main session is worker 0
+		new UploadWorker(0, ftpClient, queue, sharedListener, failure).run();
+
+		if (executor != null) {
+			awaitWorkers(executor);
 		}
+		rethrow(failure.get());
+	}
 
-		// Back to the original directory
-		LOGGER.debug("Moving to directory up");
-		ftpClient.changeToParentDirectory();
+	/**
+	 * Sessions that can be opened besides the ones in use, at most the wanted
+	 * ones. With a connection pool, only as many as it can lease now.
+	 */
+	private int extraSessions(int wanted) {
+		if (connectionPool == null) {
+			return wanted;
+		}
+		return Math.max(0, Math.min(wanted, connectionPool.available(sessionKey())));
 	}
 
-	private void uploadFile(File fileToUpload, Map<String, Long> filesListInServer,
-			FtpUploaderListener listener) throws IOException {
+	private void awaitWorkers(ExecutorService executor) throws FtpException {
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// wait for workers
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new FtpTransferException(e);
+		}
+	}
 
-		String fileName = fileToUpload.getName();
-		Long size = filesListInServer.get(fileName);
-		if (size != null && size != 0L) {
-			// Tell listener that already exist and transfer (part) of the file
-			listener.bytesTransferred(size);
-			if (size == fileToUpload.length()) {
-				LOGGER.debug("File already exists {}", fileName);
-			} else {
-				LOGGER.trace("Resuming file {} from {} MB", fileName, (size / (1024*1024)));
-				// Set the offset
-				ftpClient.setRestartOffset(size);
-				// Create stream and skip first SIZE bytes
-				InputStream ins = new FileInputStream(fileToUpload);
-				ins.skip(size);
-				// Upload file
-				storeFile(fileName, ins, fileToUpload.length()-size, listener);
+	private void rethrow(Throwable error) throws IOException {
+		if (error instanceof IOException) {
+			throw (IOException) error;
+		} else if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error instanceof Error) {
+			throw (Error) error;
+		}
+	}
+
+	private void planDirectory(File directoryToUpload, RemoteListing filesInServer,
+			List<UploadTask> tasks) throws IOException {
 
-				LOGGER.debug("File {} successfully uploaded", fileName);
+		LocalTreeScanner scanner = new LocalTreeScanner(directoryToUpload, SCAN_QUEUE_SIZE);
+		scanner.start();
+		try {
+			Deque<RemoteListing> parents = new ArrayDeque<RemoteListing>();
+			RemoteListing filesInServerDirectory = filesInServer;
+			String path = "";
+			Entry entry;
+			while ((entry = scanner.next()) != null) {
+				switch (entry.getKind()) {
+				case DIRECTORY:
+					parents.push(filesInServerDirectory);
+					path = journalKey(entry.getFile());
+					filesInServerDirectory = prepareDirectory(entry, filesInServerDirectory);
+					break;
+				case FILE:
+					tasks.add(new UploadTask(entry.getFile(), entry.getLength(), path,
+							syncedSize(filesInServerDirectory, entry.getFile(), entry.getLength(), path)));
+					break;
+				case END_DIRECTORY:
+					filesInServerDirectory = parents.pop();
+					path = parentPath(path);
+					break;
+				}
 			}
-		} else {
-			storeFile(fileName, new FileInputStream(fileToUpload), fileToUpload.length(), listener);
-			LOGGER.debug("File {} successfully uploaded", fileName);
+		} finally {
+			scanner.close();
 		}
 	}
 
-	private void storeFile(String fileName, InputStream ins, Long size,
-			final FtpUploaderListener listener) throws IOException {
+	/**
+	 * Creates the remote directory if needed. The session stays in the
+	 * remote root, directories and files are addressed by their path
+	 * relative to it, so no CWD/CDUP is sent. A directory just created is
+	 * empty, it is not listed. Neither is a directory the sync index
+	 * knows unchanged.
+	 *
+	 * @param directory scanned directory, with its children
+	 * @return files already uploaded inside the directory or {@link #UNCHANGED}
+	 */
+	private RemoteListing prepareDirectory(Entry directory, RemoteListing filesInServer) throws IOException {
 
 		checkAborted();
 		
-		OutputStream outs = ftpClient.storeFileStream(fileName);
+		File directoryToUpload = directory.getFile();
+		// Create the directory if it was not created
+		String key = journalKey(directoryToUpload);
+		boolean exist = filesInServer == UNCHANGED || filesInServer.contains(directoryToUpload.getName())
+				|| (journal != null && journal.isKnownDirectory(key));
 
-		CopyStreamAdapter adapter = new CopyStreamAdapter() {
-			@Override
-			public void bytesTransferred(long totalBytesTransferred, int bytesTransferred, long streamSize) {
-				if (listener != null) {
-					listener.bytesTransferred(bytesTransferred);
+		long fingerprint = 0;
+		if (syncIndex != null) {
+			fingerprint = SyncIndex.fingerprint(directory.getChildren());
+			if (exist && syncIndex.isUnchanged(server, username, cachePath(key), fingerprint)) {
+				LOGGER.debug("Directory {} unchanged since last sync", key);
+				return UNCHANGED;
+			}
+		}
+		if (!exist) {
+			if (ftpClient.makeDirectory(key)) {
+				LOGGER.debug("Directory created! {}", key);
+				if (listingCache != null) {
+					listingCache.stored(server, username, cachePath(parentPath(key)), directoryToUpload.getName(),
+							0, RemoteListing.UNKNOWN_TIME);
+					listingCache.put(server, username, cachePath(key), RemoteListing.empty());
 				}
+			} else {
+				// May have been created meanwhile, the listing tells
+				LOGGER.debug("Could not create directory {}: {}", key, ftpClient.getReplyString().trim());
+				exist = true;
 			}
-		};
-
-		try {
-			copyStream(ins, outs, ftpClient.getBufferSize(), size, adapter);
-		} finally {
-			outs.close();
-			ins.close();
 		}
 
-		try {
-			if (!ftpClient.completePendingCommand()) {
-				throw new FtpTransferException();
+		// Check the files inside the directory
+		RemoteListing filesInServerDirectory;
+		if (!exist){
+			filesInServerDirectory = RemoteListing.empty();
+			if (journal != null) {
+				journal.directory(key, filesInServerDirectory);
 			}
-		} catch (MalformedServerReplyException e) {
-			if (!e.getMessage().toLowerCase().contains("ok") &&
-					!e.getMessage().toLowerCase().contains("complete")) {
-				throw e;
+		}else{
+			filesInServerDirectory = listDirectory(key);
+			if (deleteRemoved) {
+				deleteRemoved(directory.getChildren(), key, filesInServerDirectory);
+			}
+		}
+		if (syncIndex != null) {
+			syncIndex.record(server, username, cachePath(key), fingerprint);
+		}
+		return filesInServerDirectory;
+	}
+
+	/**
+	 * Deletes the remote entries of the directory that are not in the local one.
+	 */
+	private void deleteRemoved(List<Entry> children, String key, RemoteListing filesInServer) throws IOException {
+		Set<String> local = new HashSet<String>();
+		for (Entry child : children) {
+			local.add(child.getFile().getName());
+		}
+		boolean deleted = false;
+		for (String name : filesInServer) {
+			if (!local.contains(name)) {
+				deleteRemote(remotePath(key, name));
+				deleted = true;
+			}
+		}
+		if (deleted && listingCache != null) {
+			listingCache.invalidate(server, username, cachePath(key));
+		}
+	}
+
+	/**
+	 * Deletes the remote file or, if it is not one, the directory with its
+	 * contents. Entries that can not be deleted are only logged.
+	 */
+	private void deleteRemote(String path) throws IOException {
+		checkAborted();
+		if (ftpClient.deleteFile(path)) {
+			LOGGER.debug("Removed file deleted {}", path);
+			return;
+		}
+		RemoteListing entries;
+		try {
+			entries = lister.list(ftpClient, path);
+		} catch (IOException e) {
+			LOGGER.warn("Could not delete {}: {}", path, e.getMessage());
+			return;
+		}
+		for (String name : entries) {
+			deleteRemote(remotePath(path, name));
+		}
+		if (listingCache != null) {
+			listingCache.invalidate(server, username, cachePath(path));
+		}
+		if (ftpClient.removeDirectory(path)) {
+			LOGGER.debug("Removed directory deleted {}", path);
+		} else {
+			LOGGER.warn("Could not delete {}: {}", path, ftpClient.getReplyString().trim());
+		}
+	}
+
+	/**
+	 * Size of the file in the server to resume from: the listed one, or 0
+	 * when syncing and the local file changed since it was uploaded. Files
+	 * in directories unchanged since the last sync are complete.
+	 */
+	private long syncedSize(RemoteListing filesInServer, File file, long length, String directory)
+			throws IOException {
+		if (filesInServer == UNCHANGED) {
+			return length;
+		}
+		String name = file.getName();
+		long size = filesInServer.size(name);
+		if (!sync || size == RemoteListing.ABSENT) {
+			return size;
+		}
+		long modified = filesInServer.modified(name);
+		if (modified == RemoteListing.UNKNOWN_TIME && size > 0 && size <= length && mdtmSupported) {
+			modified = remoteModified(ftpClient, remotePath(directory, name));
+		}
+		if (size > length || (modified != RemoteListing.UNKNOWN_TIME
+				&& file.lastModified() > modified + MODIFIED_TOLERANCE)) {
+			LOGGER.debug("File {} changed since it was uploaded", name);
+			return 0;
+		}
+		return size;
+	}
+
+	/**
+	 * Files in the remote directory (the journal key is also its path),
+	 * taken from the journal when it is already known.
+	 */
+	private RemoteListing listDirectory(String key) throws IOException {
+		if (journal == null) {
+			return listFilesCached(key);
+		}
+		if (!journal.isKnownDirectory(key)) {
+			RemoteListing listing = listFilesCached(key);
+			journal.directory(key, listing);
+			return listing;
+		}
+
+		LOGGER.debug("Directory {} taken from journal", key);
+		RemoteListing listing = journal.listing(key);
+		for (PendingFile pending : journal.pending(key)) {
+			// Interrupted upload, trust only what the server has
+			Long remoteSize = remoteSize(ftpClient, remotePath(key, pending.getName()));
+			if (remoteSize != null) {
+				listing.put(pending.getName(), pending.isSegmented() ?
+						Math.min(remoteSize, pending.getOffset()) : remoteSize);
+			}
+		}
+		return listing;
+	}
+
+	/**
+	 * Files in the remote directory taken from the listing cache, or listed
+	 * (and cached) when it is not there.
+	 */
+	private RemoteListing listFilesCached(String key) throws FtpException {
+		if (listingCache == null) {
+			return listFiles(key);
+		}
+		RemoteListing listing = listingCache.get(server, username, cachePath(key));
+		if (listing != null) {
+			LOGGER.debug("Directory {} taken from the listing cache", key);
+			return listing;
+		}
+		listing = listFiles(key);
+		listingCache.put(server, username, cachePath(key), listing);
+		return listing;
+	}
+
+	/**
+	 * Path of the remote directory in the listing cache and the sync index.
+	 */
+	private String cachePath(String key) {
+		return remotePath != null ? remotePath(remotePath, key) : key;
+	}
+
+	private String journalKey(File file) {
+		return relativePath(journalRoot, file);
+	}
+
+	/**
+	 * Path of the file under the root directory, with '/' separators. It is
+	 * the remote path of the uploaded entries and their key in the journal
+	 * and the sync index.
+	 *
+	 * @param root absolute path, the filesystem root ends with a separator
+	 */
+	static String relativePath(String root, File file) {
+		String path = file.getAbsolutePath();
+		String prefix = root.endsWith(File.separator) ? root : root + File.separator;
+		if (path.startsWith(prefix)) {
+			path = path.substring(prefix.length());
+		}
+		return path.replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Path of the entry inside the remote directory, relative to the remote root.
+	 */
+	private static String remotePath(String directory, String name) {
+		return directory.length() == 0 ? name : directory + "/" + name;
+	}
+
+	private static String parentPath(String path) {
+		int slash = path.lastIndexOf('/');
+		return slash > 0 ? path.substring(0, slash) : "";
+	}
+
+	/**
+	 * Uploads the file into the given remote directory (relative to the
+	 * remote root, where the session is). The length is the one the file had
+	 * when it was scanned.
+	 */
+	private void uploadFile(FTPClient client, File fileToUpload, long length, String directory, long size,
+			FtpUploaderListener listener) throws IOException {
+
+		String fileName = fileToUpload.getName();
+		String remoteName = remotePath(directory, fileName);
+		FtpUploaderEventListener events = listener instanceof FtpUploaderEventListener ?
+				(FtpUploaderEventListener) listener : null;
+		if (size > 0) {
+			// Tell listener that already exist and transfer (part) of the file
+			listener.bytesTransferred(size);
+			if (size == length) {
+				LOGGER.debug("File already exists {}", fileName);
+				if (events != null) {
+					events.fileSkipped(fileToUpload);
+				}
+				return;
+			}
+			LOGGER.trace("Resuming file {} from {} MB", fileName, (size / (1024*1024)));
+			if (events != null) {
+				events.fileResumed(fileToUpload, size);
+			}
+		} else {
+			size = 0;
+			if (events != null) {
+				events.fileStarted(fileToUpload);
+			}
+		}
+
+		boolean stored = false;
+		try {
+			uploadFileVerified(client, fileToUpload, length, remoteName, size, listener);
+			stored = true;
+		} finally {
+			if (listingCache != null && !stored) {
+				// Whatever the server has now, the listing does not tell
+				listingCache.invalidate(server, username, cachePath(directory));
+			}
+		}
+		if (sync && mfmtSupported) {
+			setRemoteModified(client, remoteName, fileToUpload.lastModified());
+		}
+		if (listingCache != null) {
+			listingCache.stored(server, username, cachePath(directory), fileName, length,
+					sync && mfmtSupported ? fileToUpload.lastModified() : RemoteListing.UNKNOWN_TIME);
+		}
+		LOGGER.debug("File {} successfully uploaded", fileName);
+		if (events != null) {
+			events.fileFinished(fileToUpload);
+		}
+	}
+
+	/**
+	 * Uploads the file from the given size and, if the checksum does not
+	 * match and it is enabled, once again from the start. Bytes sent again
+	 * are not reported twice.
+	 */
+	private void uploadFileVerified(FTPClient client, File fileToUpload, long length, String remoteName,
+			long size, FtpUploaderListener listener) throws IOException {
+		RetryListener progressListener = new RetryListener(size, listener);
+		try {
+			uploadFileRetrying(client, fileToUpload, length, remoteName, size, progressListener, listener);
+		} catch (FtpChecksumException e) {
+			if (!reuploadOnMismatch) {
+				throw e;
+			}
+			LOGGER.warn("Checksum mismatch at uploading {}, uploading it again", fileToUpload.getName());
+			if (metrics != null) {
+				metrics.retried("STOR");
+			}
+			progressListener.rewind(0);
+			uploadFileRetrying(client, fileToUpload, length, remoteName, 0, progressListener, listener);
+		}
+	}
+
+	/**
+	 * Uploads the file from the given offset, reconnecting and resuming it
+	 * as the retry policy says when the transfer fails. The progress goes
+	 * to the retry listener, the events to the listener.
+	 */
+	private void uploadFileRetrying(FTPClient client, File fileToUpload, long length, String remoteName,
+			long size, RetryListener progressListener, FtpUploaderListener listener) throws IOException {
+
+		if (retryPolicy == null) {
+			uploadFileFrom(client, fileToUpload, length, remoteName, size, progressListener);
+			return;
+		}
+
+		long offset = size;
+		int retry = 0;
+		while (true) {
+			try {
+				uploadFileFrom(client, fileToUpload, length, remoteName, offset, progressListener);
+				return;
+			} catch (FtpChecksumException e) {
+				throw e;
+			} catch (IOException e) {
+				if (e instanceof FtpTransferException && isPermanentFailure(client.getReplyCode())) {
+					LOGGER.debug("Server refused {}: {}", remoteName, client.getReplyString());
+					throw e;
+				}
+				boolean segmented = isSegmentable(length - offset);
+				retry = recover(client, fileToUpload, retry, e, listener);
+				if (!segmented) {
+					// Resume from what the server really has
+					Long remoteSize = remoteSize(client, remoteName);
+					offset = remoteSize != null && remoteSize <= length ? remoteSize : 0;
+				}
+				LOGGER.debug("Resuming file {} from {} after retry {}", new Object[] { remoteName, offset, retry });
+				progressListener.rewind(offset);
+			}
+		}
+	}
+
+	/**
+	 * True if the reply refuses the command for good, so trying it again
+	 * would fail the same way. Exceeded storage (552) may be gone later.
+	 */
+	private static boolean isPermanentFailure(int replyCode) {
+		return FTPReply.isNegativePermanent(replyCode) && replyCode != FTPReply.STORAGE_ALLOCATION_EXCEEDED;
+	}
+
+	/**
+	 * Waits and connects the session again, as many times as the retry
+	 * policy allows.
+	 *
+	 * @return number of the last retry
+	 * @throws IOException the last error once the retries are exhausted
+	 */
+	private int recover(FTPClient client, File file, int retry, IOException cause,
+			FtpUploaderListener listener) throws IOException {
+		while (true) {
+			retry++;
+			if (retry > retryPolicy.getMaxRetries()) {
+				throw cause;
+			}
+			LOGGER.warn("Upload of {} failed, retry {} of {}: {}",
+					new Object[] { file.getName(), retry, retryPolicy.getMaxRetries(), cause.toString() });
+			if (metrics != null) {
+				metrics.retried("STOR");
+			}
+			if (listener instanceof FtpUploaderEventListener) {
+				((FtpUploaderEventListener) listener).fileRetried(file, retry, cause);
+			}
+			backoff(retryPolicy.getDelay(retry));
+			try {
+				reconnect(client);
+				return retry;
+			} catch (IOException e) {
+				cause = e;
+			}
+		}
+	}
+
+	/**
+	 * Uploads the file from the given offset, recording it in the journal
+	 * and verifying the checksum when enabled.
+	 */
+	private void uploadFileFrom(FTPClient client, File fileToUpload, long length, String remoteName,
+			long size, FtpUploaderListener listener) throws IOException {
+
+		String fileName = fileToUpload.getName();
+		String key = journal != null ? journalKey(fileToUpload) : null;
+		long started = System.nanoTime();
+		boolean segmented = isSegmentable(length - size);
+		// Restarts and segments are sent in stream mode, as is everything
+		// if the server refuses MODE Z
+		setDeflate(client, deflateSupported && size == 0 && !segmented
+				&& compressionPolicy.shouldCompress(fileToUpload));
+		if (segmented) {
+			if (journal != null) {
+				journal.started(key, size, true);
+			}
+			uploadFileSegmented(client, fileToUpload, length, remoteName, size, listener);
+		} else {
+			FtpUploaderListener progressListener = listener;
+			if (journal != null) {
+				journal.started(key, size, false);
+				progressListener = new JournalListener(key, size, listener);
+			}
+			TransferDigest digest = newDigest(fileToUpload, size);
+			if (size > 0 && appendOnly) {
+				// Server can not restart a STOR, append the rest of the file
+				storeFile(client, remoteName, fileToUpload, size, length-size, true, digest, progressListener);
+			} else {
+				// Set the offset
+				client.setRestartOffset(size);
+				// Upload file
+				storeFile(client, remoteName, fileToUpload, size, length-size, false, digest, progressListener);
+			}
+			verifyChecksum(client, remoteName, size, length, length, digest);
+		}
+		if (journal != null) {
+			journal.finished(key, length);
+		}
+		if (metrics != null) {
+			metrics.fileUploaded(fileName, length - size, System.nanoTime() - started);
+		}
+	}
+
+	/**
+	 * Switches the session between MODE Z and MODE S, if not already there.
+	 *
+	 * @return false if the server refused MODE Z
+	 */
+	private boolean setDeflate(FTPClient client, boolean deflate) throws IOException {
+		if (deflate == deflating.contains(client)) {
+			return true;
+		}
+		if (!FTPReply.isPositiveCompletion(client.sendCommand("MODE", deflate ? "Z" : "S"))) {
+			LOGGER.debug("MODE refused: {}", client.getReplyString().trim());
+			if (!deflate) {
+				throw new FtpTransferException();
+			}
+			return false;
+		}
+		if (deflate) {
+			deflating.add(client);
+		} else {
+			deflating.remove(client);
+		}
+		return true;
+	}
+
+	/**
+	 * Digest for an upload starting at the given offset. When the server can
+	 * not hash a range, the part already uploaded is read locally first.
+	 *
+	 * @return the digest or null if checksums are not verified
+	 */
+	private TransferDigest newDigest(File file, long offset) throws IOException {
+		if (remoteChecksum == null) {
+			return null;
+		}
+		TransferDigest digest = new TransferDigest(remoteChecksum.getAlgorithm());
+		if (offset > 0 && !remoteChecksum.supportsRanges()) {
+			digest.update(file, 0, offset);
+		}
+		return digest;
+	}
+
+	/**
+	 * Compares the digest of [start, end) (of [0, end) if the server does not
+	 * support ranges) with the checksum computed by the server.
+	 */
+	private void verifyChecksum(FTPClient client, String fileName, long start, long end, long length,
+			TransferDigest digest) throws IOException {
+		if (digest == null) {
+			return;
+		}
+		boolean range = remoteChecksum.supportsRanges() && (start > 0 || end < length);
+		String remote = remoteChecksum.remoteHash(client, fileName, start, end, range);
+		if (remote == null) {
+			LOGGER.warn("Could not verify the checksum of {}", fileName);
+			return;
+		}
+		String local = digest.hex();
+		if (!remote.equals(local)) {
+			LOGGER.debug("Checksum of {} is {} in the server, expected {}", new Object[] { fileName, remote, local });
+			throw new FtpChecksumException(fileName);
+		}
+	}
+
+	private boolean isSegmentable(long pending) {
+		return fileSegments > 1 && restartSupported && pending >= 2 * segmentThreshold;
+	}
+
+	/**
+	 * Uploads the pending part of the file splitted in byte ranges, each one
+	 * through its own session with REST+STOR. The first range is uploaded
+	 * by the given session, the others only get a session while the pool
+	 * has room for it. Ranges are opened in ascending order because some
+	 * servers truncate the file at the REST offset on STOR.
+	 */
+	private void uploadFileSegmented(FTPClient client, File fileToUpload, long length, String remoteName,
+			long offset, FtpUploaderListener listener) throws IOException {
+
+		checkAborted();
+
+		String fileName = fileToUpload.getName();
+		long pending = length - offset;
+		int segments = 1 + extraSessions((int) Math.min(fileSegments, pending / segmentThreshold) - 1);
+		long[] starts = new long[segments + 1];
+		for (int i = 0; i <= segments; i++) {
+			starts[i] = offset + (pending * i / segments);
+		}
+		LOGGER.debug("Uploading file {} in {} segments", fileName, segments);
+
+		FtpUploaderListener sharedListener = listener != null ? new SynchronizedListener(listener) : null;
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		CountDownLatch[] opened = new CountDownLatch[segments];
+		for (int i = 0; i < segments; i++) {
+			opened[i] = new CountDownLatch(1);
+		}
+
+		// Open the first segment, this creates (or truncates) the remote file
+		client.setRestartOffset(starts[0]);
+		OutputStream outs;
+		long started = System.nanoTime();
+		try {
+			outs = client.storeFileStream(remoteName);
+		} finally {
+			opened[0].countDown();
+		}
+		if (outs == null) {
+			throw new FtpTransferException();
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, segments - 1));
+		for (int i = 1; i < segments; i++) {
+			executor.execute(new SegmentWorker(remoteName, fileToUpload, length, starts[i], starts[i + 1],
+					opened[i - 1], opened[i], sharedListener, failure));
+		}
+		executor.shutdown();
+
+		try {
+			TransferDigest digest = segmentDigest();
+			sendFile(client, outs, fileToUpload, starts[0], starts[1] - starts[0],
+					roundTripTime(started), digest, sharedListener);
+			completeTransfer(client);
+			verifyChecksum(client, remoteName, starts[0], starts[1], length, digest);
+		} catch (IOException e) {
+			failure.compareAndSet(null, e);
+		} catch (RuntimeException e) {
+			failure.compareAndSet(null, e);
+		}
+
+		awaitWorkers(executor);
+		rethrow(failure.get());
+
+		Long remoteSize = remoteSize(client, remoteName);
+		if (remoteSize == null || remoteSize != length) {
+			LOGGER.debug("Remote size of {} is {} after segmented upload, expected {}",
+					new Object[] { fileName, remoteSize, length });
+			throw new FtpTransferException();
+		}
+
+		if (remoteChecksum != null && !remoteChecksum.supportsRanges()) {
+			// Segments could not be verified one by one, hash the whole file
+			TransferDigest digest = new TransferDigest(remoteChecksum.getAlgorithm());
+			digest.update(fileToUpload, 0, length);
+			verifyChecksum(client, remoteName, 0, length, length, digest);
+		}
+	}
+
+	/**
+	 * Digest for a segment, only when the server can hash its range.
+	 */
+	private TransferDigest segmentDigest() {
+		if (remoteChecksum != null && remoteChecksum.supportsRanges()) {
+			return new TransferDigest(remoteChecksum.getAlgorithm());
+		}
+		return null;
+	}
+
+	/**
+	 * Size of the file in the server, or null if SIZE is not supported.
+	 */
+	private Long remoteSize(FTPClient client, String fileName) throws IOException {
+		if (FTPReply.isPositiveCompletion(client.sendCommand("SIZE", fileName))) {
+			String reply = client.getReplyString().trim();
+			try {
+				return Long.parseLong(reply.substring(reply.indexOf(' ') + 1).trim());
+			} catch (NumberFormatException e) {
+				LOGGER.debug("Invalid SIZE reply {}", reply);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Modification time of the file in the server (MDTM), or
+	 * {@link RemoteListing#UNKNOWN_TIME}.
+	 */
+	private long remoteModified(FTPClient client, String fileName) throws IOException {
+		if (FTPReply.isPositiveCompletion(client.sendCommand("MDTM", fileName))) {
+			String reply = client.getReplyString().trim();
+			try {
+				return timeFormat().parse(reply.substring(reply.indexOf(' ') + 1).trim()).getTime();
+			} catch (ParseException e) {
+				LOGGER.debug("Invalid MDTM reply {}", reply);
+			}
+		}
+		return RemoteListing.UNKNOWN_TIME;
+	}
+
+	/**
+	 * Sets the modification time of the file in the server (MFMT).
+	 */
+	private void setRemoteModified(FTPClient client, String fileName, long modified) throws IOException {
+		if (!FTPReply.isPositiveCompletion(client.sendCommand("MFMT",
+				timeFormat().format(new Date(modified)) + " " + fileName))) {
+			LOGGER.debug("Could not set modification time of {}: {}", fileName, client.getReplyString().trim());
+		}
+	}
+
+	/**
+	 * Time format of MDTM and MFMT, fractions of second are ignored.
+	 */
+	private static DateFormat timeFormat() {
+		DateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format;
+	}
+
+	/**
+	 * Uploads SIZE bytes of the file starting at OFFSET.
+	 */
+	private void storeFile(FTPClient client, String fileName, File file, long offset, long size, boolean append,
+			TransferDigest digest, FtpUploaderListener listener) throws IOException {
+
+		checkAborted();
+		
+		long started = System.nanoTime();
+		OutputStream outs = append ? client.appendFileStream(fileName) : client.storeFileStream(fileName);
+		if (outs == null) {
+			throw new FtpTransferException();
+		}
+
+		Deflater deflater = null;
+		if (deflating.contains(client)) {
+			deflater = new Deflater(compressionLevel);
+			outs = new DeflaterOutputStream(outs, deflater, bufferSize(client));
+		}
+		try {
+			sendFile(client, outs, file, offset, size, roundTripTime(started), digest, listener);
+		} finally {
+			if (deflater != null) {
+				deflater.end();
+			}
+		}
+
+		completeTransfer(client);
+	}
+
+	/**
+	 * Estimation of the round trip time from the time spent opening a data
+	 * connection (PASV and STOR replies).
+	 */
+	private long roundTripTime(long started) {
+		return (System.nanoTime() - started) / 2;
+	}
+
+	/**
+	 * Writes the file range into the data connection just opened and closes it.
+	 * With a digest or compression the data goes through the stream copy.
+	 */
+	private void sendFile(FTPClient client, OutputStream outs, File file, long offset, long size,
+			long roundTripTime, TransferDigest digest, FtpUploaderListener listener) throws IOException {
+
+		FileInputStream ins = null;
+		try {
+			ins = new FileInputStream(file);
+			FileChannel channel = ins.getChannel();
+			channel.position(offset);
+
+			long started = System.nanoTime();
+			SocketChannel dataChannel = null;
+			if (digest == null && !(outs instanceof DeflaterOutputStream) && client instanceof ZeroCopyFtpClient) {
+				dataChannel = ((ZeroCopyFtpClient) client).getDataChannel();
+			}
+			if (dataChannel != null) {
+				transferFile(channel, dataChannel, offset, size, listenerAdapter(listener));
+			} else {
+				copyStream(ins, outs, bufferSize(client), size, roundTripTime, digest, listenerAdapter(listener));
+			}
+			if (metrics != null) {
+				metrics.dataTransferred(size, System.nanoTime() - started);
+				SessionMetrics session = leases.get(client);
+				if (session != null) {
+					session.bytesTransferred(size);
+				}
+			}
+		} finally {
+			outs.close();
+			if (ins != null) {
+				ins.close();
+			}
+		}
+	}
+
+	private int bufferSize(FTPClient client) {
+		return client.getBufferSize() > 0 ? client.getBufferSize() : DEFAULT_BUFFER_SIZE;
+	}
+
+	private CopyStreamListener listenerAdapter(final FtpUploaderListener listener) {
+		return new CopyStreamAdapter() {
+			@Override
+			public void bytesTransferred(long totalBytesTransferred, int bytesTransferred, long streamSize) {
+				if (listener != null) {
+					listener.bytesTransferred(bytesTransferred);
+				}
+			}
+		};
+	}
+
+	private void completeTransfer(FTPClient client) throws IOException {
+		long started = System.nanoTime();
+		try {
+			boolean completed = client.completePendingCommand();
+			if (metrics != null) {
+				metrics.commandCompleted("COMPLETE", client.getReplyCode(), System.nanoTime() - started);
+			}
+			if (!completed) {
+				throw new FtpTransferException();
+			}
+		} catch (MalformedServerReplyException e) {
+			if (!e.getMessage().toLowerCase().contains("ok") &&
+					!e.getMessage().toLowerCase().contains("complete")) {
+				throw e;
 			}
 		}
 	}
@@ -272,75 +1544,383 @@ public class FtpUploaderCommons implements FtpUploader {
 		}
 	}
 
+	/**
+	 * Waits until the bandwidth limits allow to send the given bytes.
+	 */
+	private void awaitBandwidth(long bytes) {
+		if (jobThrottle == null) {
+			return;
+		}
+		long wait = jobThrottle.take(bytes);
+		while (wait > 0) {
+			checkAborted();
+			long slice = Math.min(wait, MAX_THROTTLE_SLEEP);
+			try {
+				Thread.sleep(slice / 1000000, (int) (slice % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AbortedTransferException();
+			}
+			wait -= slice;
+		}
+	}
+
+	/**
+	 * Largest chunk allowed by the bandwidth limits.
+	 */
+	private int maxChunk() {
+		return jobThrottle != null ? jobThrottle.getMaxChunk() : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Sends the file range with <code>transferTo</code>, in chunks so the
+	 * listener and the abort flag are still checked along the way.
+	 */
+	private void transferFile(FileChannel source, SocketChannel dest, long position, long size,
+			CopyStreamListener listener) throws CopyStreamException {
+		long total = 0;
+		try {
+			while (total < size) {
+				checkAborted();
+				long bytes = source.transferTo(position + total,
+						Math.min(Math.min(TRANSFER_CHUNK, maxChunk()), size - total), dest);
+				if (bytes <= 0) {
+					break;
+				}
+				awaitBandwidth(bytes);
+				total += bytes;
+				if (listener != null) {
+					listener.bytesTransferred(total, (int) bytes, size);
+				}
+			}
+		} catch (IOException e) {
+			throw new CopyStreamException("IOException caught while transferring.", total, e);
+		}
+	}
+
+	/**
+	 * Copies the stream with a pooled buffer whose size follows the measured
+	 * write times (see {@link AdaptiveBufferSize}). The destination is only
+	 * flushed at the end.
+	 */
 	private void copyStream(InputStream source, OutputStream dest,
-            int bufferSize, long streamSize,
-            CopyStreamListener listener) throws CopyStreamException {
-        int bytes;
-        long total;
-        byte[] buffer;
-
-        buffer = new byte[bufferSize];
-        total = 0;
-
-        try {
-            while ((bytes = source.read(buffer)) != -1 || !aborted.get()) {
-                if (bytes == 0) {
-                    bytes = source.read();
-                    if (bytes < 0) {
-                        break;
-                    }
-                    dest.write(bytes);
-                    dest.flush();
-                    ++total;
-                    if (listener != null) {
-                        listener.bytesTransferred(total, 1, streamSize);
-                    }
-                    continue;
-                }
-
-                dest.write(buffer, 0, bytes);
-                dest.flush();
-                total += bytes;
-                if (listener != null) {
-                    listener.bytesTransferred(total, bytes, streamSize);
-                }
-            }
-        } catch (IOException e) {
-            throw new CopyStreamException("IOException caught while copying.", total, e);
-        }
-	}
-
-	/**
-	 * List files inside the current folder.
+			int bufferSize, long streamSize, long roundTripTime, TransferDigest digest,
+			CopyStreamListener listener) throws CopyStreamException {
+		AdaptiveBufferSize chunk = new AdaptiveBufferSize(bufferSize, MIN_BUFFER_SIZE, MAX_BUFFER_SIZE);
+		chunk.setRoundTripTime(roundTripTime);
+		if (readAheadBuffers > 1 && streamSize >= READ_AHEAD_THRESHOLD) {
+			copyStreamReadingAhead(source, dest, chunk, streamSize, digest, listener);
+			return;
+		}
+		byte[] buffer = BUFFER_POOL.acquire(chunk.getSize());
+		long total = 0;
+		int bytes;
+
+		try {
+			// Local files never return 0 bytes for a non empty read
+			while (total < streamSize &&
+					(bytes = source.read(buffer, 0,
+							(int) Math.min(Math.min(chunk.getSize(), maxChunk()), streamSize - total))) != -1) {
+				checkAborted();
+				if (digest != null) {
+					digest.update(buffer, 0, bytes);
+				}
+				awaitBandwidth(bytes);
+
+				long started = System.nanoTime();
+				dest.write(buffer, 0, bytes);
+				chunk.record(bytes, System.nanoTime() - started);
+
+				total += bytes;
+				if (listener != null) {
+					listener.bytesTransferred(total, bytes, streamSize);
+				}
+				if (chunk.getSize() > buffer.length) {
+					BUFFER_POOL.release(buffer);
+					buffer = BUFFER_POOL.acquire(chunk.getSize());
+				}
+			}
+			dest.flush();
+		} catch (IOException e) {
+			throw new CopyStreamException("IOException caught while copying.", total, e);
+		} finally {
+			BUFFER_POOL.release(buffer);
+		}
+	}
+
+	/**
+	 * Same copy with the reads done by a {@link ReadAheadReader}, the
+	 * chunk size still follows the measured write times.
+	 */
+	private void copyStreamReadingAhead(InputStream source, OutputStream dest,
+			AdaptiveBufferSize chunk, long streamSize, TransferDigest digest,
+			CopyStreamListener listener) throws CopyStreamException {
+		ReadAheadReader reader = new ReadAheadReader(source, streamSize, readAheadBuffers,
+				Math.min(chunk.getSize(), maxChunk()), BUFFER_POOL);
+		reader.start();
+		long total = 0;
+
+		try {
+			ReadAheadReader.Chunk read;
+			while ((read = reader.next()) != null) {
+				checkAborted();
+				byte[] buffer = read.getBuffer();
+				int bytes = read.getLength();
+				if (digest != null) {
+					digest.update(buffer, 0, bytes);
+				}
+				awaitBandwidth(bytes);
+
+				long started = System.nanoTime();
+				dest.write(buffer, 0, bytes);
+				chunk.record(bytes, System.nanoTime() - started);
+				reader.release(read);
+				reader.setChunkSize(Math.min(chunk.getSize(), maxChunk()));
+
+				total += bytes;
+				if (listener != null) {
+					listener.bytesTransferred(total, bytes, streamSize);
+				}
+			}
+			dest.flush();
+		} catch (IOException e) {
+			throw new CopyStreamException("IOException caught while copying.", total, e);
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * List files inside the given folder (relative to the remote root).
 	 * 
 	 * @return List with files names and size
 	 * @throws IOException
 	 */
-	private Map<String, Long> listFiles() throws FtpException {
+	private RemoteListing listFiles(String path) throws FtpException {
 		int attempts = 0;
-		Map<String, Long> files = new LinkedHashMap<String, Long>();
 		while (true){
 			try {
-				FTPListParseEngine engine = null;
-				if (type.startsWith("UNIX")) {
-					engine = ftpClient.initiateListParsing(FTPClientConfig.SYST_UNIX, null);
-				} else {
-					engine = ftpClient.initiateListParsing();
-				}
-
-				FTPFile[] list = engine.getFiles();
-				if (list != null){
-					for (FTPFile ftpFile : list){
-						files.put(ftpFile.getName(), ftpFile.getSize());
-					}
-				}
-				return files;
+				return lister.list(ftpClient, path.length() == 0 ? null : path);
 			} catch (Exception e) {
 				attempts++;
-				if (attempts > 3) {
+				if (attempts > (retryPolicy != null ? retryPolicy.getMaxRetries() : 3)) {
 					throw new FtpListFilesException(e);
 				} else {
+					if (metrics != null) {
+						metrics.retried("LIST");
+					}
 					LOGGER.trace("First attempt to get list of files FAILED! attempt={}", attempts);
+					if (retryPolicy != null) {
+						backoff(retryPolicy.getDelay(attempts));
+						try {
+							reconnect(ftpClient);
+						} catch (IOException reconnectError) {
+							LOGGER.debug("Could not reconnect to {}", server, reconnectError);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Uploads files taken from the shared queue through the given session,
+	 * or through its own one when there is none.
+	 */
+	private class UploadWorker implements Runnable {
+
+		private final int index;
+
+		/**
+		 * Session of the caller, not released here
+		 */
+		private final FTPClient session;
+
+		private final WorkStealingQueue<UploadTask> queue;
+
+		private final FtpUploaderListener listener;
+
+		private final AtomicReference<Throwable> failure;
+
+		public UploadWorker(int index, FTPClient session, WorkStealingQueue<UploadTask> queue,
+				FtpUploaderListener listener, AtomicReference<Throwable> failure) {
+			this.index = index;
+			this.session = session;
+			this.queue = queue;
+			this.listener = listener;
+			this.failure = failure;
+		}
+
+		@Override
+		public void run() {
+			FTPClient client = null;
+			try {
+				client = session != null ? session : acquireSession();
+
+				UploadTask task;
+				while (failure.get() == null && (task = queue.poll(index)) != null) {
+					checkAborted();
+					uploadFile(client, task.getFile(), task.getLength(), task.getRemoteDirectory(),
+							task.getRemoteSize(), listener);
+				}
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+				if (client != null && client != session) {
+					releaseSession(client, false);
+					client = null;
+				}
+			} finally {
+				if (client != null && client != session) {
+					releaseSession(client, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Uploads one byte range of a file through its own session.
+	 */
+	private class SegmentWorker implements Runnable {
+
+		private final String remoteName;
+
+		private final File file;
+
+		private final long length;
+
+		private final long start;
+
+		private final long end;
+
+		private final CountDownLatch previousOpened;
+
+		private final CountDownLatch opened;
+
+		private final FtpUploaderListener listener;
+
+		private final AtomicReference<Throwable> failure;
+
+		public SegmentWorker(String remoteName, File file, long length, long start, long end,
+				CountDownLatch previousOpened, CountDownLatch opened,
+				FtpUploaderListener listener, AtomicReference<Throwable> failure) {
+			this.remoteName = remoteName;
+			this.file = file;
+			this.length = length;
+			this.start = start;
+			this.end = end;
+			this.previousOpened = previousOpened;
+			this.opened = opened;
+			this.listener = listener;
+			this.failure = failure;
+		}
+
+		@Override
+		public void run() {
+			FTPClient client = null;
+			try {
+				// Holds no session while the previous ranges are opened
+				previousOpened.await();
+				if (failure.get() != null) {
+					return;
+				}
+				checkAborted();
+				client = acquireSession();
+
+				LOGGER.trace("Uploading segment {}-{} of {}", new Object[] { start, end, file.getName() });
+				client.setRestartOffset(start);
+				long started = System.nanoTime();
+				OutputStream outs = client.storeFileStream(remoteName);
+				opened.countDown();
+				if (outs == null) {
+					throw new FtpTransferException();
+				}
+				TransferDigest digest = segmentDigest();
+				sendFile(client, outs, file, start, end - start, roundTripTime(started), digest, listener);
+				completeTransfer(client);
+				verifyChecksum(client, remoteName, start, end, length, digest);
+			} catch (Throwable e) {
+				failure.compareAndSet(null, e);
+				if (client != null) {
+					releaseSession(client, false);
+					client = null;
+				}
+			} finally {
+				opened.countDown();
+				if (client != null) {
+					releaseSession(client, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reports the bytes of a file only once across its retries: after a
+	 * retry resumes from an earlier offset, the bytes sent again are not
+	 * reported until they pass what was already reported.
+	 */
+	private static class RetryListener implements FtpUploaderListener {
+
+		private final FtpUploaderListener delegate;
+
+		private long position;
+
+		private long reported;
+
+		public RetryListener(long offset, FtpUploaderListener delegate) {
+			this.position = offset;
+			this.reported = offset;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void bytesTransferred(long bytesTransferred) {
+			position += bytesTransferred;
+			if (position > reported) {
+				if (delegate != null) {
+					delegate.bytesTransferred(position - reported);
+				}
+				reported = position;
+			}
+		}
+
+		public void rewind(long offset) {
+			position = offset;
+		}
+	}
+
+	/**
+	 * Writes a progress record in the journal every {@link #JOURNAL_CHECKPOINT}
+	 * bytes.
+	 */
+	private class JournalListener implements FtpUploaderListener {
+
+		private final String key;
+
+		private final FtpUploaderListener delegate;
+
+		private long offset;
+
+		private long recorded;
+
+		public JournalListener(String key, long offset, FtpUploaderListener delegate) {
+			this.key = key;
+			this.offset = offset;
+			this.recorded = offset;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public void bytesTransferred(long bytesTransferred) {
+			if (delegate != null) {
+				delegate.bytesTransferred(bytesTransferred);
+			}
+			offset += bytesTransferred;
+			if (offset - recorded >= JOURNAL_CHECKPOINT) {
+				try {
+					journal.progress(key, offset);
+					recorded = offset;
+				} catch (IOException e) {
+					LOGGER.warn("Could not write to the journal", e);
 				}
 			}
 		}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * FtpUploaderEventListener.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import java.io.File;
+
+/**
+ * Listener that, besides the bytes transferred, is told when each file
+ * starts, resumes, is skipped, is retried or finishes.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public interface FtpUploaderEventListener extends FtpUploaderListener {
+
+	/**
+	 * The file is uploaded from the beginning.
+	 */
+	void fileStarted(File file);
+
+	/**
+	 * The file is uploaded from the given offset, the part already in the
+	 * server was reported as transferred.
+	 */
+	void fileResumed(File file, long offset);
+
+	/**
+	 * The file is already complete in the server.
+	 */
+	void fileSkipped(File file);
+
+	/**
+	 * The upload of the file failed and is retried after reconnecting.
+	 * Bytes sent again are not reported twice.
+	 *
+	 * @param retry number of the retry, starting at 1
+	 */
+	void fileRetried(File file, int retry, Throwable cause);
+
+	/**
+	 * The file was uploaded.
+	 */
+	void fileFinished(File file);
+
+}
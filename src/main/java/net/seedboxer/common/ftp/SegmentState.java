@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * SegmentState.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Progress of a segmented download, kept next to the partial file so an
+ * interrupted download resumes each segment where it stopped. The file
+ * holds the size, the number of segments and, for each one, its range and
+ * the position reached. Positions are written in place, each segment in
+ * its own slot, so the segments update it concurrently.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+class SegmentState {
+
+	private final static int HEADER = 16;
+
+	private final static int SLOT = 24;
+
+	private final RandomAccessFile file;
+
+	private final FileChannel channel;
+
+	private final long[] starts;
+
+	private final long[] ends;
+
+	private final long[] positions;
+
+	private SegmentState(RandomAccessFile file, long[] starts, long[] ends, long[] positions) {
+		this.file = file;
+		this.channel = file.getChannel();
+		this.starts = starts;
+		this.ends = ends;
+		this.positions = positions;
+	}
+
+	/**
+	 * Opens the state of a previous download of the same size, or starts a
+	 * new one splitting [offset, size) in the given segments.
+	 */
+	public static SegmentState open(File stateFile, long size, long offset, int segments) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(stateFile, "rw");
+		try {
+			if (file.length() >= HEADER && file.readLong() == size) {
+				int count = (int) file.readLong();
+				if (count > 0 && file.length() == HEADER + (long) count * SLOT) {
+					long[] starts = new long[count];
+					long[] ends = new long[count];
+					long[] positions = new long[count];
+					for (int i = 0; i < count; i++) {
+						starts[i] = file.readLong();
+						ends[i] = file.readLong();
+						positions[i] = file.readLong();
+					}
+					return new SegmentState(file, starts, ends, positions);
+				}
+			}
+
+			long pending = size - offset;
+			long[] starts = new long[segments];
+			long[] ends = new long[segments];
+			file.setLength(0);
+			file.writeLong(size);
+			file.writeLong(segments);
+			for (int i = 0; i < segments; i++) {
+				starts[i] = offset + (pending * i / segments);
+				ends[i] = offset + (pending * (i + 1) / segments);
+				file.writeLong(starts[i]);
+				file.writeLong(ends[i]);
+				file.writeLong(starts[i]);
+			}
+			return new SegmentState(file, starts, ends, starts.clone());
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	public int getSegments() {
+		return starts.length;
+	}
+
+	public long getStart(int segment) {
+		return starts[segment];
+	}
+
+	public long getEnd(int segment) {
+		return ends[segment];
+	}
+
+	/**
+	 * @return position reached by the segment in a previous download
+	 */
+	public long getPosition(int segment) {
+		return positions[segment];
+	}
+
+	/**
+	 * Records the position reached by the segment.
+	 */
+	public void update(int segment, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(8);
+		buffer.putLong(0, position);
+		long offset = HEADER + (long) segment * SLOT + 16;
+		while (buffer.hasRemaining()) {
+			offset += channel.write(buffer, offset);
+		}
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+}
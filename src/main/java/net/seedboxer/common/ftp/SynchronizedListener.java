@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * SynchronizedListener.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import java.io.File;
+
+/**
+ * Serializes the notifications of the parallel workers so the listener
+ * keeps receiving a single combined count. File events are forwarded
+ * only to a {@link FtpUploaderEventListener}.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+class SynchronizedListener implements FtpUploaderEventListener {
+
+	private final FtpUploaderListener delegate;
+
+	private final FtpUploaderEventListener events;
+
+	public SynchronizedListener(FtpUploaderListener delegate) {
+		this.delegate = delegate;
+		this.events = delegate instanceof FtpUploaderEventListener ? (FtpUploaderEventListener) delegate : null;
+	}
+
+	@Override
+	public synchronized void bytesTransferred(long bytesTransferred) {
+		delegate.bytesTransferred(bytesTransferred);
+	}
+
+	@Override
+	public synchronized void fileStarted(File file) {
+		if (events != null) {
+			events.fileStarted(file);
+		}
+	}
+
+	@Override
+	public synchronized void fileResumed(File file, long offset) {
+		if (events != null) {
+			events.fileResumed(file, offset);
+		}
+	}
+
+	@Override
+	public synchronized void fileSkipped(File file) {
+		if (events != null) {
+			events.fileSkipped(file);
+		}
+	}
+
+	@Override
+	public synchronized void fileRetried(File file, int retry, Throwable cause) {
+		if (events != null) {
+			events.fileRetried(file, retry, cause);
+		}
+	}
+
+	@Override
+	public synchronized void fileFinished(File file) {
+		if (events != null) {
+			events.fileFinished(file);
+		}
+	}
+
+}
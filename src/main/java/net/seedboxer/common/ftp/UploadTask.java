@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * UploadTask.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import java.io.File;
+
+/**
+ * A single file waiting to be uploaded, together with the remote directory
+ * (relative to the session root) where it goes, its length when it was
+ * scanned and the size it already has in the server.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+class UploadTask {
+
+	private final File file;
+
+	private final long length;
+
+	private final String remoteDirectory;
+
+	/**
+	 * Size in the server or {@link net.seedboxer.common.ftp.listing.RemoteListing#ABSENT}
+	 */
+	private final long remoteSize;
+
+	public UploadTask(File file, long length, String remoteDirectory, long remoteSize) {
+		this.file = file;
+		this.length = length;
+		this.remoteDirectory = remoteDirectory;
+		this.remoteSize = remoteSize;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public String getRemoteDirectory() {
+		return remoteDirectory;
+	}
+
+	public long getRemoteSize() {
+		return remoteSize;
+	}
+
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * WorkStealingQueue.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * Fixed set of work items split between N workers. Each worker consumes its
+ * own deque from the head and, once it is empty, steals from the tail of the
+ * others. Items are assigned in contiguous blocks so that a worker usually
+ * keeps uploading to the same remote directory.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+class WorkStealingQueue<T> {
+
+	private final List<BlockingDeque<T>> deques;
+
+	public WorkStealingQueue(List<T> items, int workers) {
+		this.deques = new ArrayList<BlockingDeque<T>>(workers);
+		for (int i = 0; i < workers; i++) {
+			deques.add(new LinkedBlockingDeque<T>());
+		}
+		int total = items.size();
+		for (int i = 0; i < total; i++) {
+			deques.get((int) ((long) i * workers / total)).addLast(items.get(i));
+		}
+	}
+
+	/**
+	 * Next item for the given worker or null if there is no more work.
+	 */
+	public T poll(int worker) {
+		T item = deques.get(worker).pollFirst();
+		for (int i = 1; item == null && i < deques.size(); i++) {
+			item = deques.get((worker + i) % deques.size()).pollLast();
+		}
+		return item;
+	}
+
+}
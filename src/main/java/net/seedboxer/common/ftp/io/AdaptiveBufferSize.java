@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * AdaptiveBufferSize.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk size of a copy loop tuned from the measured write times.
+ * <p>
+ * While a chunk is written much faster than the target time the loop is
+ * paying syscall overhead, so the size is doubled. When a chunk takes too
+ * long the connection is the bottleneck and a smaller chunk keeps the
+ * listener and the abort check responsive. The target time follows the
+ * round trip time of the session (half of it, between 2 and 50 ms).
+ * <p>
+ * Not thread safe, each transfer uses its own instance.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class AdaptiveBufferSize {
+
+	private final static long MIN_TARGET = TimeUnit.MILLISECONDS.toNanos(2);
+
+	private final static long MAX_TARGET = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private final int minSize;
+
+	private final int maxSize;
+
+	private int size;
+
+	private long target = MIN_TARGET;
+
+	public AdaptiveBufferSize(int initialSize, int minSize, int maxSize) {
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.size = Math.max(minSize, Math.min(maxSize, initialSize));
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @param nanos round trip time measured on the session
+	 */
+	public void setRoundTripTime(long nanos) {
+		target = Math.max(MIN_TARGET, Math.min(MAX_TARGET, nanos / 2));
+	}
+
+	/**
+	 * Records the time spent writing a chunk of the current size.
+	 */
+	public void record(int bytes, long nanos) {
+		if (bytes < size) {
+			// Short read (end of file), says nothing about the connection
+			return;
+		}
+		if (nanos < target / 4 && size < maxSize) {
+			size = Math.min(maxSize, size << 1);
+		} else if (nanos > target * 4 && size > minSize) {
+			size = Math.max(minSize, size >> 1);
+		}
+	}
+
+}
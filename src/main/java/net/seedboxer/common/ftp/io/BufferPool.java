@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * BufferPool.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of copy buffers shared by all the transfers of the JVM, so uploading
+ * thousands of small files does not allocate a new buffer for each one.
+ * Buffers are kept in power of two size classes, with a bounded number of
+ * idle buffers in each class.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class BufferPool {
+
+	private final static int MIN_SHIFT = 12;
+
+	private final static int MAX_SHIFT = 24;
+
+	private final List<Queue<byte[]>> buckets;
+
+	private final AtomicInteger[] idle;
+
+	private final int maxIdlePerSize;
+
+	public BufferPool(int maxIdlePerSize) {
+		this.maxIdlePerSize = maxIdlePerSize;
+		this.buckets = new ArrayList<Queue<byte[]>>(MAX_SHIFT - MIN_SHIFT + 1);
+		this.idle = new AtomicInteger[MAX_SHIFT - MIN_SHIFT + 1];
+		for (int i = 0; i < idle.length; i++) {
+			buckets.add(new ConcurrentLinkedQueue<byte[]>());
+			idle[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * @return a buffer of at least the given size (up to 16 MB)
+	 */
+	public byte[] acquire(int size) {
+		int bucket = bucket(size);
+		byte[] buffer = buckets.get(bucket).poll();
+		if (buffer != null) {
+			idle[bucket].decrementAndGet();
+			return buffer;
+		}
+		return new byte[1 << (bucket + MIN_SHIFT)];
+	}
+
+	/**
+	 * Gives back a buffer obtained with {@link #acquire(int)}.
+	 */
+	public void release(byte[] buffer) {
+		int bucket = bucket(buffer.length);
+		if (buffer.length != 1 << (bucket + MIN_SHIFT)) {
+			return;
+		}
+		if (idle[bucket].incrementAndGet() <= maxIdlePerSize) {
+			buckets.get(bucket).offer(buffer);
+		} else {
+			idle[bucket].decrementAndGet();
+		}
+	}
+
+	private int bucket(int size) {
+		int shift = MIN_SHIFT;
+		while (shift < MAX_SHIFT && (1 << shift) < size) {
+			shift++;
+		}
+		return shift - MIN_SHIFT;
+	}
+
+}
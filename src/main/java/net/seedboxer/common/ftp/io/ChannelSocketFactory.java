@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * ChannelSocketFactory.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+import javax.net.SocketFactory;
+
+/**
+ * Creates sockets backed by a {@link SocketChannel}, so data can be written
+ * to them with {@link java.nio.channels.FileChannel#transferTo}.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class ChannelSocketFactory extends SocketFactory {
+
+	@Override
+	public Socket createSocket() throws IOException {
+		return SocketChannel.open().socket();
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		Socket socket = createSocket();
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		Socket socket = createSocket();
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		Socket socket = createSocket();
+		socket.bind(new InetSocketAddress(localHost, localPort));
+		socket.connect(new InetSocketAddress(host, port));
+		return socket;
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+		Socket socket = createSocket();
+		socket.bind(new InetSocketAddress(localAddress, localPort));
+		socket.connect(new InetSocketAddress(address, port));
+		return socket;
+	}
+
+}
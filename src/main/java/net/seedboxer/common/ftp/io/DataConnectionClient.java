@@ -0,0 +1,45 @@
+/*******************************************************************************
+ * DataConnectionClient.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Client that can open a data connection for an arbitrary command, used
+ * for the commands that {@link org.apache.commons.net.ftp.FTPClient} only
+ * exposes fully materialized (MLSD, LIST).
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public interface DataConnectionClient {
+
+	/**
+	 * Sends the command and opens its data connection. The caller must close
+	 * the socket and then call <code>completePendingCommand()</code>.
+	 *
+	 * @return the data socket, or null if the server refused the command
+	 * @throws IOException
+	 */
+	Socket openDataConnection(String command, String arg) throws IOException;
+
+}
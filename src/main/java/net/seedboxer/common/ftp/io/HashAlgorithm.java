@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * HashAlgorithm.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+/**
+ * Checksums that can be computed by the server, with the names used by
+ * the HASH command and by the older X* commands.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public enum HashAlgorithm {
+
+	SHA256("SHA-256", "XSHA256", 64),
+	SHA1("SHA-1", "XSHA1", 40),
+	MD5("MD5", "XMD5", 32),
+	CRC32("CRC32", "XCRC", 8);
+
+	private final String name;
+
+	private final String command;
+
+	private final int hexLength;
+
+	private HashAlgorithm(String name, String command, int hexLength) {
+		this.name = name;
+		this.command = command;
+		this.hexLength = hexLength;
+	}
+
+	/**
+	 * Name in HASH and in {@link java.security.MessageDigest}.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Legacy command (XCRC, XMD5...).
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	public int getHexLength() {
+		return hexLength;
+	}
+
+	public static HashAlgorithm forName(String name) {
+		for (HashAlgorithm algorithm : values()) {
+			if (algorithm.name.equalsIgnoreCase(name)) {
+				return algorithm;
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * ReadAheadReader.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads a stream in a background thread into a bounded ring of buffers, so
+ * the disk reads overlap the writes (and the encryption) of the consumer.
+ * The consumer takes the filled chunks in order with {@link #next()} and
+ * gives each buffer back with {@link #release(Chunk)} once written; the
+ * reader waits while every buffer of the ring is filled.
+ * <p>
+ * Buffers come from a {@link BufferPool} and go back to it on
+ * {@link #close()}, which the consumer must always call.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class ReadAheadReader {
+
+	/**
+	 * A filled buffer.
+	 */
+	public static class Chunk {
+
+		private final byte[] buffer;
+
+		private final int length;
+
+		Chunk(byte[] buffer, int length) {
+			this.buffer = buffer;
+			this.length = length;
+		}
+
+		public byte[] getBuffer() {
+			return buffer;
+		}
+
+		public int getLength() {
+			return length;
+		}
+	}
+
+	private final static Chunk END = new Chunk(null, 0);
+
+	private final InputStream source;
+
+	private final long size;
+
+	private final int buffers;
+
+	private final BufferPool pool;
+
+	private final BlockingQueue<byte[]> free;
+
+	private final BlockingQueue<Chunk> filled;
+
+	private final List<byte[]> allocated = new ArrayList<byte[]>();
+
+	private final Thread reader;
+
+	private volatile int chunkSize;
+
+	private volatile IOException failure;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param source stream to read, already positioned
+	 * @param size bytes to read
+	 * @param buffers buffers in the ring (at least 2)
+	 * @param chunkSize bytes read at once, see {@link #setChunkSize(int)}
+	 * @param pool where the buffers come from
+	 */
+	public ReadAheadReader(InputStream source, long size, int buffers, int chunkSize, BufferPool pool) {
+		this.source = source;
+		this.size = size;
+		this.buffers = Math.max(2, buffers);
+		this.chunkSize = chunkSize;
+		this.pool = pool;
+		this.free = new ArrayBlockingQueue<byte[]>(this.buffers);
+		this.filled = new ArrayBlockingQueue<Chunk>(this.buffers + 1);
+		this.reader = new Thread(new Reader(), "ftp-read-ahead");
+		reader.setDaemon(true);
+	}
+
+	public void start() {
+		reader.start();
+	}
+
+	/**
+	 * Size of the next reads, the consumer can tune it while copying.
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Next chunk of the stream, waiting for the reader if needed.
+	 *
+	 * @return the chunk or null at the end of the stream (or of the size)
+	 * @throws IOException if the stream could not be read
+	 */
+	public Chunk next() throws IOException {
+		Chunk chunk;
+		try {
+			chunk = filled.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading ahead");
+		}
+		if (chunk == END) {
+			// Keep returning the end
+			filled.offer(END);
+			if (failure != null) {
+				throw failure;
+			}
+			return null;
+		}
+		return chunk;
+	}
+
+	/**
+	 * Gives the buffer of a chunk back to the reader.
+	 */
+	public void release(Chunk chunk) {
+		free.offer(chunk.getBuffer());
+	}
+
+	/**
+	 * Stops the reader and returns the buffers to the pool. Chunks taken
+	 * and not released must not be used afterwards.
+	 */
+	public void close() {
+		closed = true;
+		reader.interrupt();
+		boolean interrupted = false;
+		while (reader.isAlive()) {
+			try {
+				reader.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (allocated) {
+			for (byte[] buffer : allocated) {
+				pool.release(buffer);
+			}
+			allocated.clear();
+		}
+		free.clear();
+		filled.clear();
+	}
+
+	private class Reader implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				read();
+			} catch (IOException e) {
+				failure = e;
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				filled.put(END);
+			} catch (InterruptedException e) {
+				// Closed
+			}
+		}
+
+		private void read() throws IOException, InterruptedException {
+			long total = 0;
+			while (total < size) {
+				int length = (int) Math.min(chunkSize, size - total);
+				byte[] buffer = buffer(length);
+				// Local files never return 0 bytes for a non empty read
+				int bytes = source.read(buffer, 0, Math.min(length, buffer.length));
+				if (bytes == -1) {
+					free.offer(buffer);
+					return;
+				}
+				total += bytes;
+				filled.put(new Chunk(buffer, bytes));
+			}
+		}
+
+		/**
+		 * A free buffer of the ring, of at least the given size.
+		 */
+		private byte[] buffer(int length) throws InterruptedException {
+			byte[] buffer = free.poll();
+			if (buffer == null) {
+				synchronized (allocated) {
+					if (allocated.size() < buffers) {
+						buffer = pool.acquire(length);
+						allocated.add(buffer);
+						return buffer;
+					}
+				}
+				if (closed) {
+					throw new InterruptedException();
+				}
+				buffer = free.take();
+			}
+			if (buffer.length < length) {
+				// The chunk size grew, swap it for a larger one
+				synchronized (allocated) {
+					allocated.remove(buffer);
+					pool.release(buffer);
+					buffer = pool.acquire(length);
+					allocated.add(buffer);
+				}
+			}
+			return buffer;
+		}
+	}
+
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * RemoteChecksum.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.io.IOException;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checksum command supported by a server, as advertised in FEAT: HASH
+ * (optionally with RANG for byte ranges) or one of XSHA256, XSHA1, XMD5
+ * and XCRC (whole files only).
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class RemoteChecksum {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(RemoteChecksum.class);
+
+	private final HashAlgorithm algorithm;
+
+	private final boolean hashCommand;
+
+	private final boolean ranges;
+
+	private RemoteChecksum(HashAlgorithm algorithm, boolean hashCommand, boolean ranges) {
+		this.algorithm = algorithm;
+		this.hashCommand = hashCommand;
+		this.ranges = ranges;
+	}
+
+	/**
+	 * Looks for a checksum command in the features of the server (FEAT must
+	 * already have been sent).
+	 *
+	 * @return the command to use or null if there is none
+	 */
+	public static RemoteChecksum detect(FTPClient client) throws IOException {
+		String hash = client.featureValue("HASH");
+		if (hash != null) {
+			HashAlgorithm selected = null;
+			String[] names = hash.split(";");
+			for (String name : names) {
+				// The current algorithm is marked with *
+				if (name.endsWith("*")) {
+					selected = HashAlgorithm.forName(name.substring(0, name.length() - 1));
+				}
+			}
+			for (int i = 0; selected == null && i < names.length; i++) {
+				HashAlgorithm algorithm = HashAlgorithm.forName(names[i].replace("*", ""));
+				if (algorithm != null && FTPReply.isPositiveCompletion(
+						client.sendCommand("OPTS", "HASH " + algorithm.getName()))) {
+					selected = algorithm;
+				}
+			}
+			if (selected != null) {
+				boolean ranges = client.hasFeature("RANG", "STREAM");
+				LOGGER.debug("Using HASH {} (ranges {})", selected.getName(), ranges);
+				return new RemoteChecksum(selected, true, ranges);
+			}
+		}
+		for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+			if (client.hasFeature(algorithm.getCommand())) {
+				LOGGER.debug("Using {}", algorithm.getCommand());
+				return new RemoteChecksum(algorithm, false, false);
+			}
+		}
+		return null;
+	}
+
+	public HashAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * The server can compute the checksum of a byte range.
+	 */
+	public boolean supportsRanges() {
+		return ranges;
+	}
+
+	/**
+	 * Asks the server the checksum of the file, or of the range
+	 * [start, end) if <code>range</code> is set. The range is reset
+	 * afterwards, so the session can be reused for a whole file HASH.
+	 *
+	 * @return lower case hexadecimal checksum or null if the server failed
+	 */
+	public String remoteHash(FTPClient client, String fileName, long start, long end, boolean range)
+			throws IOException {
+		int reply;
+		String replyString;
+		if (hashCommand) {
+			if (range && !FTPReply.isPositiveIntermediate(client.sendCommand("RANG", start + " " + (end - 1)))) {
+				return null;
+			}
+			try {
+				reply = client.sendCommand("HASH", fileName);
+				replyString = client.getReplyString();
+			} finally {
+				if (range) {
+					resetRange(client);
+				}
+			}
+		} else {
+			reply = client.sendCommand(algorithm.getCommand(), fileName);
+			replyString = client.getReplyString();
+		}
+		if (!FTPReply.isPositiveCompletion(reply)) {
+			LOGGER.debug("Checksum command failed: {}", replyString);
+			return null;
+		}
+		return extractHash(replyString);
+	}
+
+	/**
+	 * Sends <code>RANG 1 0</code>, which clears the range.
+	 */
+	private void resetRange(FTPClient client) throws IOException {
+		if (!FTPReply.isPositiveIntermediate(client.sendCommand("RANG", "1 0"))) {
+			LOGGER.debug("Could not reset the range: {}", client.getReplyString());
+		}
+	}
+
+	private String extractHash(String reply) {
+		for (String token : reply.trim().split("\\s+")) {
+			if (token.length() == algorithm.getHexLength() && isHex(token)) {
+				return token.toLowerCase();
+			}
+		}
+		return null;
+	}
+
+	private boolean isHex(String token) {
+		for (int i = 0; i < token.length(); i++) {
+			if (Character.digit(token.charAt(i), 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * SampledCompressionPolicy.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses a sample taken from the start and the middle of the file with
+ * the fastest level, and sends the file compressed only if the sample
+ * shrinks enough. Files already compressed (archives, video, images) are
+ * sent as they are.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class SampledCompressionPolicy implements CompressionPolicy {
+
+	private final int sampleSize;
+
+	private final double maxRatio;
+
+	/**
+	 * Samples 64KB and compresses files that shrink at least 10%.
+	 */
+	public SampledCompressionPolicy() {
+		this(64 * 1024, 0.9);
+	}
+
+	/**
+	 * @param sampleSize bytes read from the file
+	 * @param maxRatio max compressed/original ratio of the sample
+	 */
+	public SampledCompressionPolicy(int sampleSize, double maxRatio) {
+		if (sampleSize < 2 || maxRatio <= 0) {
+			throw new IllegalArgumentException("Sample size and ratio must be positive");
+		}
+		this.sampleSize = sampleSize;
+		this.maxRatio = maxRatio;
+	}
+
+	@Override
+	public boolean shouldCompress(File file) throws IOException {
+		long length = file.length();
+		if (length == 0) {
+			return false;
+		}
+		byte[] sample = new byte[(int) Math.min(sampleSize, length)];
+		int half = sample.length / 2;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.readFully(sample, 0, half);
+			raf.seek(Math.max(half, length / 2));
+			raf.readFully(sample, half, sample.length - half);
+		} finally {
+			raf.close();
+		}
+		return compressedSize(sample) <= sample.length * maxRatio;
+	}
+
+	private static long compressedSize(byte[] sample) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(sample);
+			deflater.finish();
+			byte[] output = new byte[8 * 1024];
+			while (!deflater.finished()) {
+				deflater.deflate(output);
+			}
+			return deflater.getBytesWritten();
+		} finally {
+			deflater.end();
+		}
+	}
+
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * SecureFtpClient.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.commons.net.ftp.FTPSClient;
+import org.apache.commons.net.util.TrustManagerUtils;
+
+/**
+ * {@link FTPSClient} with access to its (already encrypted) data connections.
+ * <p>
+ * Created with {@link TlsOptions}, the data connections resume the TLS
+ * session of the control connection when asked: they are opened plain and
+ * then wrapped by the same SSL context under the host and port of the
+ * control connection (see {@link SessionPortSocket}), which is how the JSSE
+ * session cache finds the session to resume.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class SecureFtpClient extends FTPSClient implements DataConnectionClient {
+
+	private final TlsOptions options;
+
+	private final SSLContext context;
+
+	/**
+	 * Data connections wrapped here to resume the session
+	 */
+	private boolean resumeSessions;
+
+	public SecureFtpClient(TlsOptions options) {
+		this(options, createContext());
+	}
+
+	private SecureFtpClient(TlsOptions options, SSLContext context) {
+		super(options.isImplicit(), context);
+		this.options = options;
+		this.context = context;
+		if (options.getProtocols() != null) {
+			setEnabledProtocols(options.getProtocols());
+		}
+		if (options.getCipherSuites() != null) {
+			setEnabledCipherSuites(options.getCipherSuites());
+		}
+	}
+
+	/**
+	 * Context that validates the server certificate as {@link FTPSClient}
+	 * does by default.
+	 */
+	private static SSLContext createContext() {
+		try {
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(new KeyManager[0],
+					new TrustManager[] { TrustManagerUtils.getValidateServerCertificateTrustManager() }, null);
+			return context;
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("TLS is not available", e);
+		}
+	}
+
+	/**
+	 * Sends PBSZ and PROT as the options say, once logged in. Nothing is
+	 * sent unless the options ask for data protection explicitly.
+	 */
+	public void protectDataChannel() throws IOException {
+		if (!options.isDataProtection()) {
+			return;
+		}
+		execPBSZ(0);
+		if (options.isPrivateData()) {
+			execPROT("P");
+			if (options.isSessionReuse()) {
+				// Data sockets are opened plain and wrapped here
+				setSocketFactory(null);
+				setServerSocketFactory(null);
+				resumeSessions = true;
+			}
+		} else {
+			execPROT("C");
+			resumeSessions = false;
+		}
+		if (!FTPReply.isPositiveCompletion(getReplyCode())) {
+			throw new IOException("Data protection refused: " + getReplyString());
+		}
+	}
+
+	@Override
+	public void disconnect() throws IOException {
+		super.disconnect();
+		resumeSessions = false;
+	}
+
+	@Override
+	protected Socket _openDataConnection_(String command, String arg) throws IOException {
+		Socket socket = super._openDataConnection_(command, arg);
+		if (socket == null || !resumeSessions) {
+			return socket;
+		}
+		String host = _hostname_ != null ? _hostname_ : getRemoteAddress().getHostAddress();
+		int port = _socket_.getPort();
+		SSLSocket secure = (SSLSocket) context.getSocketFactory().createSocket(new SessionPortSocket(socket, port),
+				host, port, true);
+		secure.setUseClientMode(true);
+		if (options.getProtocols() != null) {
+			secure.setEnabledProtocols(options.getProtocols());
+		}
+		if (options.getCipherSuites() != null) {
+			secure.setEnabledCipherSuites(options.getCipherSuites());
+		}
+		secure.startHandshake();
+		return secure;
+	}
+
+	@Override
+	public Socket openDataConnection(String command, String arg) throws IOException {
+		return _openDataConnection_(command, arg);
+	}
+
+}
@@ -0,0 +1,216 @@
+/*******************************************************************************
+ * SocketTuning.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Socket settings of a session. Immutable, each <code>with</code> method
+ * returns a modified copy.
+ * <ul>
+ * <li>Send and receive buffer sizes of the data connections, set before
+ * connecting so the TCP window can grow to them. 0 leaves the system
+ * default.</li>
+ * <li>TCP_NODELAY on the control connection, so short commands are not
+ * held back waiting for the previous reply's ACK.</li>
+ * <li>Connect timeout, data timeout (a data connection without traffic)
+ * and idle timeout (the control connection waiting for a reply).</li>
+ * <li>Passive or active data connections.</li>
+ * <li>Auto tuning: with the bandwidth of the link known, the round trip
+ * time is measured after login and the data buffers left at 0 are sized to
+ * the bandwidth-delay product, so a single stream can fill a long fat
+ * link.</li>
+ * </ul>
+ * Sessions kept in a connection pool keep the settings they were opened with.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class SocketTuning {
+
+	private final static int DEFAULT_TIMEOUT = 2 * 60 * 1000;
+
+	private final static int MIN_AUTO_BUFFER = 64 * 1024;
+
+	private final static int MAX_AUTO_BUFFER = 16 * 1024 * 1024;
+
+	/**
+	 * System buffers, Nagle on, 2 minutes timeouts and passive mode, what
+	 * the sessions always used.
+	 */
+	public final static SocketTuning DEFAULT = new SocketTuning(0, 0, false, 0,
+			DEFAULT_TIMEOUT, DEFAULT_TIMEOUT, DEFAULT_TIMEOUT, true, 0);
+
+	private final int sendBufferSize;
+
+	private final int receiveBufferSize;
+
+	private final boolean controlNoDelay;
+
+	private final int streamBufferSize;
+
+	private final int connectTimeout;
+
+	private final int dataTimeout;
+
+	private final int idleTimeout;
+
+	private final boolean passive;
+
+	private final long linkBandwidth;
+
+	private SocketTuning(int sendBufferSize, int receiveBufferSize, boolean controlNoDelay, int streamBufferSize,
+			int connectTimeout, int dataTimeout, int idleTimeout, boolean passive, long linkBandwidth) {
+		this.sendBufferSize = sendBufferSize;
+		this.receiveBufferSize = receiveBufferSize;
+		this.controlNoDelay = controlNoDelay;
+		this.streamBufferSize = streamBufferSize;
+		this.connectTimeout = connectTimeout;
+		this.dataTimeout = dataTimeout;
+		this.idleTimeout = idleTimeout;
+		this.passive = passive;
+		this.linkBandwidth = linkBandwidth;
+	}
+
+	/**
+	 * @param sendBufferSize SO_SNDBUF of the data connections, 0 for the default
+	 * @param receiveBufferSize SO_RCVBUF of the data connections, 0 for the default
+	 */
+	public SocketTuning withDataBuffers(int sendBufferSize, int receiveBufferSize) {
+		if (sendBufferSize < 0 || receiveBufferSize < 0) {
+			throw new IllegalArgumentException("Buffer sizes can not be negative");
+		}
+		return new SocketTuning(sendBufferSize, receiveBufferSize, controlNoDelay, streamBufferSize,
+				connectTimeout, dataTimeout, idleTimeout, passive, linkBandwidth);
+	}
+
+	/**
+	 * @param controlNoDelay TCP_NODELAY on the control connection
+	 */
+	public SocketTuning withControlNoDelay(boolean controlNoDelay) {
+		return new SocketTuning(sendBufferSize, receiveBufferSize, controlNoDelay, streamBufferSize,
+				connectTimeout, dataTimeout, idleTimeout, passive, linkBandwidth);
+	}
+
+	/**
+	 * @param streamBufferSize initial copy buffer of the transfers, 0 for the default
+	 */
+	public SocketTuning withStreamBufferSize(int streamBufferSize) {
+		if (streamBufferSize < 0) {
+			throw new IllegalArgumentException("Buffer size can not be negative");
+		}
+		return new SocketTuning(sendBufferSize, receiveBufferSize, controlNoDelay, streamBufferSize,
+				connectTimeout, dataTimeout, idleTimeout, passive, linkBandwidth);
+	}
+
+	/**
+	 * @param connectTimeout millis to establish the control connection
+	 * @param dataTimeout millis a data connection may go without traffic
+	 * @param idleTimeout millis the control connection may wait for a reply
+	 */
+	public SocketTuning withTimeouts(int connectTimeout, int dataTimeout, int idleTimeout) {
+		if (connectTimeout < 0 || dataTimeout < 0 || idleTimeout < 0) {
+			throw new IllegalArgumentException("Timeouts can not be negative");
+		}
+		return new SocketTuning(sendBufferSize, receiveBufferSize, controlNoDelay, streamBufferSize,
+				connectTimeout, dataTimeout, idleTimeout, passive, linkBandwidth);
+	}
+
+	/**
+	 * @param passive passive (PASV) or active (PORT) data connections
+	 */
+	public SocketTuning withPassive(boolean passive) {
+		return new SocketTuning(sendBufferSize, receiveBufferSize, controlNoDelay, streamBufferSize,
+				connectTimeout, dataTimeout, idleTimeout, passive, linkBandwidth);
+	}
+
+	/**
+	 * @param linkBandwidth bytes per second of the link, to size the data
+	 * buffers from the measured round trip time; 0 disables the probe
+	 */
+	public SocketTuning withAutoTuning(long linkBandwidth) {
+		if (linkBandwidth < 0) {
+			throw new IllegalArgumentException("Bandwidth can not be negative");
+		}
+		return new SocketTuning(sendBufferSize, receiveBufferSize, controlNoDelay, streamBufferSize,
+				connectTimeout, dataTimeout, idleTimeout, passive, linkBandwidth);
+	}
+
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	public boolean isControlNoDelay() {
+		return controlNoDelay;
+	}
+
+	public int getStreamBufferSize() {
+		return streamBufferSize;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public int getDataTimeout() {
+		return dataTimeout;
+	}
+
+	public int getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public boolean isPassive() {
+		return passive;
+	}
+
+	public boolean isAutoTuning() {
+		return linkBandwidth > 0;
+	}
+
+	public long getLinkBandwidth() {
+		return linkBandwidth;
+	}
+
+	/**
+	 * Buffer size for the bandwidth-delay product of the link, between 64 KB
+	 * and 16 MB, rounded up to 64 KB.
+	 *
+	 * @param roundTripTime nanos measured on the session
+	 */
+	public int bufferSizeFor(long roundTripTime) {
+		double product = (double) linkBandwidth * roundTripTime / TimeUnit.SECONDS.toNanos(1);
+		long size = ((long) Math.ceil(product / MIN_AUTO_BUFFER)) * MIN_AUTO_BUFFER;
+		return (int) Math.max(MIN_AUTO_BUFFER, Math.min(MAX_AUTO_BUFFER, size));
+	}
+
+	@Override
+	public String toString() {
+		return "sndbuf=" + sendBufferSize + " rcvbuf=" + receiveBufferSize + " nodelay=" + controlNoDelay
+				+ " timeouts=" + connectTimeout + "/" + dataTimeout + "/" + idleTimeout
+				+ (passive ? " passive" : " active") + (linkBandwidth > 0 ? " bandwidth=" + linkBandwidth : "");
+	}
+
+}
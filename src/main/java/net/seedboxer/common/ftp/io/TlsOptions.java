@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * TlsOptions.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.util.Arrays;
+
+/**
+ * FTPS settings of a session. Immutable, sessions with the same options
+ * can be shared in a connection pool.
+ * <ul>
+ * <li><code>implicit</code>: TLS from the start (usually port 990) or
+ * explicit <code>AUTH TLS</code> on the plain port.</li>
+ * <li><code>privateData</code>: <code>PROT P</code>, the data connections
+ * are encrypted too, otherwise <code>PROT C</code> (clear).</li>
+ * <li><code>sessionReuse</code>: data connections resume the TLS session
+ * of the control connection instead of doing a full handshake each, much
+ * cheaper for many small files. Some servers require it.</li>
+ * </ul>
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class TlsOptions {
+
+	/**
+	 * Implicit TLS without PBSZ/PROT, what <code>ssl</code> meant so far.
+	 * Servers that do not know these commands keep working.
+	 */
+	public final static TlsOptions DEFAULT = new TlsOptions(true, false, false, false, null, null);
+
+	private final boolean implicit;
+
+	private final boolean privateData;
+
+	private final boolean sessionReuse;
+
+	/**
+	 * Whether PBSZ/PROT are sent at all
+	 */
+	private final boolean dataProtection;
+
+	private final String[] protocols;
+
+	private final String[] cipherSuites;
+
+	public TlsOptions(boolean implicit, boolean privateData, boolean sessionReuse) {
+		this(implicit, privateData, sessionReuse, true, null, null);
+	}
+
+	private TlsOptions(boolean implicit, boolean privateData, boolean sessionReuse, boolean dataProtection,
+			String[] protocols, String[] cipherSuites) {
+		this.implicit = implicit;
+		this.privateData = privateData;
+		this.sessionReuse = sessionReuse;
+		this.dataProtection = dataProtection;
+		this.protocols = protocols;
+		this.cipherSuites = cipherSuites;
+	}
+
+	/**
+	 * @param protocols enabled protocols, in order of preference (e.g. TLSv1.3)
+	 * @return the same options with the given protocols
+	 */
+	public TlsOptions withProtocols(String... protocols) {
+		return new TlsOptions(implicit, privateData, sessionReuse, dataProtection, protocols.clone(),
+				cipherSuites);
+	}
+
+	/**
+	 * @param cipherSuites enabled cipher suites, in order of preference
+	 * @return the same options with the given cipher suites
+	 */
+	public TlsOptions withCipherSuites(String... cipherSuites) {
+		return new TlsOptions(implicit, privateData, sessionReuse, dataProtection, protocols,
+				cipherSuites.clone());
+	}
+
+	public boolean isImplicit() {
+		return implicit;
+	}
+
+	public boolean isPrivateData() {
+		return privateData;
+	}
+
+	public boolean isSessionReuse() {
+		return sessionReuse;
+	}
+
+	/**
+	 * @return true when PBSZ/PROT must be sent after login, false only for
+	 *         {@link #DEFAULT} (and options derived from it)
+	 */
+	public boolean isDataProtection() {
+		return dataProtection;
+	}
+
+	/**
+	 * @return enabled protocols or null for the defaults of the JVM
+	 */
+	public String[] getProtocols() {
+		return protocols != null ? protocols.clone() : null;
+	}
+
+	/**
+	 * @return enabled cipher suites or null for the defaults of the JVM
+	 */
+	public String[] getCipherSuites() {
+		return cipherSuites != null ? cipherSuites.clone() : null;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = (implicit ? 1 : 0) + (privateData ? 2 : 0) + (sessionReuse ? 4 : 0) + (dataProtection ? 8 : 0);
+		result = 31 * result + Arrays.hashCode(protocols);
+		result = 31 * result + Arrays.hashCode(cipherSuites);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TlsOptions)) {
+			return false;
+		}
+		TlsOptions other = (TlsOptions) obj;
+		return implicit == other.implicit && privateData == other.privateData
+				&& sessionReuse == other.sessionReuse && dataProtection == other.dataProtection
+				&& Arrays.equals(protocols, other.protocols)
+				&& Arrays.equals(cipherSuites, other.cipherSuites);
+	}
+
+	@Override
+	public String toString() {
+		return (implicit ? "implicit" : "explicit") + (!dataProtection ? "" : privateData ? " PROT P" : " PROT C")
+				+ (sessionReuse ? " reuse" : "");
+	}
+
+}
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * TransferDigest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Digest of the bytes sent in a transfer, updated by the copy loop.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class TransferDigest {
+
+	private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final MessageDigest digest;
+
+	private final CRC32 crc;
+
+	public TransferDigest(HashAlgorithm algorithm) {
+		if (algorithm == HashAlgorithm.CRC32) {
+			this.crc = new CRC32();
+			this.digest = null;
+		} else {
+			this.crc = null;
+			try {
+				this.digest = MessageDigest.getInstance(algorithm.getName());
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalArgumentException(e);
+			}
+		}
+	}
+
+	public void update(byte[] buffer, int offset, int length) {
+		if (crc != null) {
+			crc.update(buffer, offset, length);
+		} else {
+			digest.update(buffer, offset, length);
+		}
+	}
+
+	/**
+	 * Reads the given range of the local file into the digest.
+	 */
+	public void update(File file, long start, long end) throws IOException {
+		FileInputStream ins = new FileInputStream(file);
+		try {
+			ins.getChannel().position(start);
+			byte[] buffer = new byte[64 * 1024];
+			long pending = end - start;
+			int bytes;
+			while (pending > 0 && (bytes = ins.read(buffer, 0, (int) Math.min(buffer.length, pending))) != -1) {
+				update(buffer, 0, bytes);
+				pending -= bytes;
+			}
+		} finally {
+			ins.close();
+		}
+	}
+
+	/**
+	 * @return lower case hexadecimal digest
+	 */
+	public String hex() {
+		if (crc != null) {
+			String value = Long.toHexString(crc.getValue());
+			return "00000000".substring(value.length()) + value;
+		}
+		byte[] bytes = digest.digest();
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		return new String(chars);
+	}
+
+}
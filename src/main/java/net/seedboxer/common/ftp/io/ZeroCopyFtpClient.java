@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * ZeroCopyFtpClient.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.io;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+import org.apache.commons.net.ftp.FTPClient;
+
+/**
+ * {@link FTPClient} that opens its passive data connections through a
+ * {@link ChannelSocketFactory} and keeps the last one, so an upload can be
+ * sent with {@link java.nio.channels.FileChannel#transferTo} instead of
+ * being copied through the stream. The control connection is left as a
+ * plain socket.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class ZeroCopyFtpClient extends FTPClient implements DataConnectionClient {
+
+	private Socket dataSocket;
+
+	@Override
+	protected void _connectAction_() throws IOException {
+		super._connectAction_();
+		// From now on only data connections are created
+		setSocketFactory(new ChannelSocketFactory());
+	}
+
+	@Override
+	public void disconnect() throws IOException {
+		super.disconnect();
+		setSocketFactory(null);
+		dataSocket = null;
+	}
+
+	@Override
+	protected Socket _openDataConnection_(String command, String arg) throws IOException {
+		dataSocket = super._openDataConnection_(command, arg);
+		return dataSocket;
+	}
+
+	@Override
+	public Socket openDataConnection(String command, String arg) throws IOException {
+		return _openDataConnection_(command, arg);
+	}
+
+	/**
+	 * Channel of the last data connection opened, or null if it is not
+	 * available (active mode or already closed).
+	 */
+	public SocketChannel getDataChannel() {
+		Socket socket = dataSocket;
+		if (socket == null || socket.isClosed()) {
+			return null;
+		}
+		return socket.getChannel();
+	}
+
+}
@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * TransferJournal.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.journal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.seedboxer.common.ftp.listing.RemoteListing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append only log of an upload, so a restarted upload can carry on without
+ * listing again every remote directory.
+ * <p>
+ * Paths are relative to the parent of the uploaded file (the same in local
+ * and remote side). Records, one per line:
+ * <ul>
+ * <li><code>L dir</code> directory known, its entries follow as <code>S</code></li>
+ * <li><code>S size path</code> entry found in a known directory</li>
+ * <li><code>P offset path</code> file being uploaded, bytes sent so far</li>
+ * <li><code>G offset path</code> file being uploaded in segments from offset</li>
+ * <li><code>F size path</code> file completely uploaded</li>
+ * </ul>
+ * Each record is written with a single call, so it survives a crash of the
+ * process; an incomplete last line is cut off before the replay. With
+ * <code>sync</code> every completed file is also forced to disk.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class TransferJournal {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(TransferJournal.class);
+
+	private final static String ENCODING = "UTF-8";
+
+	private final File file;
+
+	private final boolean sync;
+
+	private final Map<String, Map<String, Entry>> directories = new HashMap<String, Map<String, Entry>>();
+
+	private FileOutputStream out;
+
+	public TransferJournal(File file, boolean sync) throws IOException {
+		this.file = file;
+		this.sync = sync;
+		if (file.exists()) {
+			replay();
+		}
+		this.out = new FileOutputStream(file, true);
+	}
+
+	public synchronized boolean isKnownDirectory(String path) {
+		return directories.containsKey(path);
+	}
+
+	/**
+	 * Entries of a known directory with their confirmed size. Files that
+	 * were being uploaded are returned by {@link #pending(String)} instead.
+	 */
+	public synchronized RemoteListing listing(String path) {
+		Map<String, Entry> entries = directories.get(path);
+		RemoteListing listing = new RemoteListing(entries != null ? entries.size() : 0);
+		if (entries != null) {
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				if (!entry.getValue().isPending()) {
+					listing.put(entry.getKey(), entry.getValue().value);
+				}
+			}
+		}
+		return listing;
+	}
+
+	/**
+	 * Files of a known directory whose upload did not finish.
+	 */
+	public synchronized List<PendingFile> pending(String path) {
+		Map<String, Entry> entries = directories.get(path);
+		if (entries == null) {
+			return Collections.emptyList();
+		}
+		List<PendingFile> pending = new ArrayList<PendingFile>();
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (entry.getValue().isPending()) {
+				pending.add(new PendingFile(entry.getKey(), entry.getValue().value,
+						entry.getValue().type == 'G'));
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Records a directory and its current remote entries.
+	 */
+	public synchronized void directory(String path, RemoteListing listing) throws IOException {
+		StringBuilder record = new StringBuilder();
+		record.append("L ").append(path).append('\n');
+		Map<String, Entry> entries = new HashMap<String, Entry>();
+		for (String name : listing) {
+			long size = listing.size(name);
+			record.append("S ").append(size).append(' ').append(child(path, name)).append('\n');
+			entries.put(name, new Entry('S', size));
+		}
+		directories.put(path, entries);
+		write(record.toString(), false);
+	}
+
+	public void started(String path, long offset, boolean segmented) throws IOException {
+		append(segmented ? 'G' : 'P', offset, path, false);
+	}
+
+	public void progress(String path, long offset) throws IOException {
+		append('P', offset, path, false);
+	}
+
+	public void finished(String path, long size) throws IOException {
+		append('F', size, path, sync);
+	}
+
+	/**
+	 * Forgets everything, called when the upload completes.
+	 */
+	public synchronized void clear() throws IOException {
+		directories.clear();
+		out.getChannel().truncate(0);
+	}
+
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	private synchronized void append(char type, long value, String path, boolean force) throws IOException {
+		apply(type, value, path);
+		write(type + " " + value + " " + path + "\n", force);
+	}
+
+	private void write(String record, boolean force) throws IOException {
+		out.write(record.getBytes(ENCODING));
+		if (force) {
+			out.getFD().sync();
+		}
+	}
+
+	private void replay() throws IOException {
+		dropTornRecord();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				replay(line);
+			}
+		} finally {
+			reader.close();
+		}
+		LOGGER.debug("Journal {} replayed, {} directories known", file, directories.size());
+	}
+
+	/**
+	 * Cuts the last record if it was not completely written, so it is
+	 * neither replayed nor merged with the next record appended.
+	 */
+	private void dropTornRecord() throws IOException {
+		RandomAccessFile journal = new RandomAccessFile(file, "rw");
+		try {
+			long end = journal.length();
+			while (end > 0) {
+				journal.seek(end - 1);
+				if (journal.read() == '\n') {
+					break;
+				}
+				end--;
+			}
+			if (end < journal.length()) {
+				LOGGER.debug("Dropping incomplete last record of {}", file);
+				journal.setLength(end);
+			}
+		} finally {
+			journal.close();
+		}
+	}
+
+	private void replay(String line) {
+		if (line.length() < 2 || line.charAt(1) != ' ') {
+			return;
+		}
+		char type = line.charAt(0);
+		if (type == 'L') {
+			if (!directories.containsKey(line.substring(2))) {
+				directories.put(line.substring(2), new HashMap<String, Entry>());
+			}
+			return;
+		}
+		int separator = line.indexOf(' ', 2);
+		if (separator < 0) {
+			return;
+		}
+		try {
+			apply(type, Long.parseLong(line.substring(2, separator)), line.substring(separator + 1));
+		} catch (NumberFormatException e) {
+			// Torn record
+		}
+	}
+
+	private void apply(char type, long value, String path) {
+		int slash = path.lastIndexOf('/');
+		String parent = slash < 0 ? "" : path.substring(0, slash);
+		Map<String, Entry> entries = directories.get(parent);
+		if (entries != null) {
+			entries.put(path.substring(slash + 1), new Entry(type, value));
+		}
+	}
+
+	private String child(String path, String name) {
+		return path.length() == 0 ? name : path + "/" + name;
+	}
+
+	/**
+	 * File whose upload was interrupted.
+	 */
+	public static class PendingFile {
+
+		private final String name;
+
+		private final long offset;
+
+		private final boolean segmented;
+
+		public PendingFile(String name, long offset, boolean segmented) {
+			this.name = name;
+			this.offset = offset;
+			this.segmented = segmented;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Bytes known to be sent (for segmented uploads, the start offset).
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * Segmented uploads may leave holes after the offset, so the remote
+		 * size can not be trusted beyond it.
+		 */
+		public boolean isSegmented() {
+			return segmented;
+		}
+	}
+
+	private static class Entry {
+
+		private final char type;
+
+		private final long value;
+
+		public Entry(char type, long value) {
+			this.type = type;
+			this.value = value;
+		}
+
+		public boolean isPending() {
+			return type == 'P' || type == 'G';
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * BandwidthLimiter.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.limit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bandwidth limits shared by every uploader that uses the same instance:
+ * a global limit, a limit for each server and a limit for each job. A job
+ * is one <code>upload</code> call, with all the files, parallel
+ * connections and segments it sends. All of them can be changed at any
+ * time, 0 means unlimited.
+ * <p>
+ * Every job takes its bytes from the three buckets and waits for the
+ * slowest one. Since the buckets serve the bytes in the order they were
+ * asked and each connection asks for small slices (see
+ * {@link Throttle#getMaxChunk()}), the capacity is split evenly between
+ * the active connections.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class BandwidthLimiter {
+
+	private final TokenBucket global = new TokenBucket(0);
+
+	private final ConcurrentMap<String, TokenBucket> servers = new ConcurrentHashMap<String, TokenBucket>();
+
+	private volatile long jobRate;
+
+	/**
+	 * @param rate bytes per second for all the transfers
+	 */
+	public void setGlobalRate(long rate) {
+		global.setRate(rate);
+	}
+
+	public long getGlobalRate() {
+		return global.getRate();
+	}
+
+	/**
+	 * @param server
+	 * @param rate bytes per second for all the transfers to the server
+	 */
+	public void setServerRate(String server, long rate) {
+		server(server).setRate(rate);
+	}
+
+	public long getServerRate(String server) {
+		TokenBucket bucket = servers.get(server);
+		return bucket != null ? bucket.getRate() : 0;
+	}
+
+	/**
+	 * @param rate bytes per second for each job (one <code>upload</code>
+	 * call), it also applies to jobs already running
+	 */
+	public void setJobRate(long rate) {
+		if (rate < 0) {
+			throw new IllegalArgumentException("Rate can not be negative");
+		}
+		this.jobRate = rate;
+	}
+
+	public long getJobRate() {
+		return jobRate;
+	}
+
+	/**
+	 * Starts a new job to the given server. Its throttle is shared by all
+	 * the connections of the job and dropped when the job ends.
+	 */
+	public Throttle open(String server) {
+		return new Throttle(this, global, server(server));
+	}
+
+	private TokenBucket server(String server) {
+		TokenBucket bucket = servers.get(server);
+		if (bucket == null) {
+			TokenBucket created = new TokenBucket(0);
+			bucket = servers.putIfAbsent(server, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		return bucket;
+	}
+
+}
@@ -0,0 +1,92 @@
+/*******************************************************************************
+ * Throttle.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.limit;
+
+/**
+ * Rate limit of a single job (one <code>upload</code> call), created by
+ * {@link BandwidthLimiter}. It is shared by the parallel connections and
+ * segments of the job. It holds no resources, nothing has to be closed.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class Throttle {
+
+	/**
+	 * Smallest slice asked to the buckets
+	 */
+	private final static int MIN_CHUNK = 4 * 1024;
+
+	/**
+	 * Max time of transfer asked at once, in slices of 1/20 of a second
+	 */
+	private final static int SLICES_PER_SECOND = 20;
+
+	private final BandwidthLimiter limiter;
+
+	private final TokenBucket global;
+
+	private final TokenBucket server;
+
+	private final TokenBucket job;
+
+	Throttle(BandwidthLimiter limiter, TokenBucket global, TokenBucket server) {
+		this.limiter = limiter;
+		this.global = global;
+		this.server = server;
+		this.job = new TokenBucket(limiter.getJobRate());
+	}
+
+	/**
+	 * Takes the bytes from all the limits.
+	 *
+	 * @return nanos to wait before sending them
+	 */
+	public long take(long bytes) {
+		long rate = limiter.getJobRate();
+		if (rate != job.getRate()) {
+			job.setRate(rate);
+		}
+		return Math.max(job.take(bytes), Math.max(server.take(bytes), global.take(bytes)));
+	}
+
+	/**
+	 * Largest amount of bytes worth asking at once, so a slow limit is not
+	 * used up by a single big write.
+	 *
+	 * @return the size or {@link Integer#MAX_VALUE} if unlimited
+	 */
+	public int getMaxChunk() {
+		long rate = lowest(lowest(limiter.getJobRate(), server.getRate()), global.getRate());
+		if (rate == 0) {
+			return Integer.MAX_VALUE;
+		}
+		return (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_CHUNK, rate / SLICES_PER_SECOND));
+	}
+
+	private static long lowest(long a, long b) {
+		if (a == 0) {
+			return b;
+		}
+		return b == 0 ? a : Math.min(a, b);
+	}
+
+}
@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * TokenBucket.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.limit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free token bucket measured in bytes. The tokens may go negative:
+ * a caller always takes what it needs and then waits for the debt to be
+ * refilled, so concurrent callers are served in the order they arrived.
+ * A rate of 0 means unlimited and costs a single volatile read.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class TokenBucket {
+
+	private final static long SECOND = 1000000000L;
+
+	private final static long REFILL_INTERVAL = 1000000L;
+
+	private volatile long rate;
+
+	private final AtomicLong tokens = new AtomicLong();
+
+	private final AtomicLong lastRefill = new AtomicLong(System.nanoTime());
+
+	/**
+	 * @param rate bytes per second, 0 for unlimited
+	 */
+	public TokenBucket(long rate) {
+		setRate(rate);
+	}
+
+	public long getRate() {
+		return rate;
+	}
+
+	/**
+	 * Changes the rate, the bucket is refilled at most up to one second of
+	 * the new rate.
+	 *
+	 * @param rate bytes per second, 0 for unlimited
+	 */
+	public void setRate(long rate) {
+		if (rate < 0) {
+			throw new IllegalArgumentException("Rate can not be negative");
+		}
+		this.rate = rate;
+		lastRefill.set(System.nanoTime());
+		tokens.set(0);
+	}
+
+	/**
+	 * Takes the given amount of bytes from the bucket.
+	 *
+	 * @return nanos the caller has to wait before sending them
+	 */
+	public long take(long bytes) {
+		long rate = this.rate;
+		if (rate == 0) {
+			return 0;
+		}
+		refill(rate);
+		long left = tokens.addAndGet(-bytes);
+		if (left >= 0) {
+			return 0;
+		}
+		return (long) (-left * (double) SECOND / rate);
+	}
+
+	private void refill(long rate) {
+		long last = lastRefill.get();
+		long now = System.nanoTime();
+		long elapsed = now - last;
+		// Only one caller per interval pays for the refill
+		if (elapsed < REFILL_INTERVAL || !lastRefill.compareAndSet(last, now)) {
+			return;
+		}
+		long added = elapsed >= SECOND ? rate : (long) (elapsed * (double) rate / SECOND);
+		long current;
+		long updated;
+		do {
+			current = tokens.get();
+			updated = Math.min(rate, current + added);
+		} while (!tokens.compareAndSet(current, updated));
+	}
+
+}
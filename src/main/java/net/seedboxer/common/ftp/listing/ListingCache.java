@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * ListingCache.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.listing;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listings of remote directories shared by the uploaders of the same server
+ * and user, so consecutive jobs into the same remote tree do not LIST the
+ * same directories again.
+ * <p>
+ * Listings expire after the TTL and the least recently used ones are evicted
+ * once the cache holds more than <code>maxEntries</code> names in total. The
+ * uploaders keep the cached listings up to date with the files they store
+ * and the directories they create; a listing that may no longer match the
+ * server (e.g. after a failed transfer or a delete) is invalidated. Changes
+ * made by others are only seen once the listing expires.
+ * <p>
+ * Thread safe. Listings are copied in and out, callers can modify them.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class ListingCache {
+
+	private final int maxEntries;
+
+	private final long ttl;
+
+	private final LinkedHashMap<String, Cached> listings = new LinkedHashMap<String, Cached>(16, 0.75f, true);
+
+	private int entries;
+
+	private long hits;
+
+	private long misses;
+
+	/**
+	 * @param maxEntries max names kept, adding up all the listings
+	 * @param ttl millis a listing is trusted since it was read from the server
+	 */
+	public ListingCache(int maxEntries, long ttl) {
+		if (maxEntries < 1 || ttl < 1) {
+			throw new IllegalArgumentException("Max entries and TTL must be positive");
+		}
+		this.maxEntries = maxEntries;
+		this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+	}
+
+	/**
+	 * @param path remote directory
+	 * @return a copy of the cached listing or null if it is not cached (or expired)
+	 */
+	public synchronized RemoteListing get(String server, String username, String path) {
+		String key = key(server, username, path);
+		Cached cached = listings.get(key);
+		if (cached != null && System.nanoTime() - cached.read > ttl) {
+			remove(key);
+			cached = null;
+		}
+		if (cached == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return cached.listing.copy();
+	}
+
+	/**
+	 * Caches a copy of the listing just read from the server (or known to be
+	 * the one in the server, e.g. a directory just created).
+	 */
+	public synchronized void put(String server, String username, String path, RemoteListing listing) {
+		String key = key(server, username, path);
+		remove(key);
+		Cached cached = new Cached(listing.copy(), System.nanoTime());
+		listings.put(key, cached);
+		entries += cached.listing.count();
+		evict();
+	}
+
+	/**
+	 * Records an entry stored in the directory, if its listing is cached.
+	 *
+	 * @param size size in the server
+	 * @param modifiedTime milliseconds since the epoch or {@link RemoteListing#UNKNOWN_TIME}
+	 */
+	public synchronized void stored(String server, String username, String path, String name,
+			long size, long modifiedTime) {
+		Cached cached = listings.get(key(server, username, path));
+		if (cached == null) {
+			return;
+		}
+		int count = cached.listing.count();
+		cached.listing.put(name, size, modifiedTime);
+		entries += cached.listing.count() - count;
+		evict();
+	}
+
+	/**
+	 * Forgets the listing of the directory.
+	 */
+	public synchronized void invalidate(String server, String username, String path) {
+		remove(key(server, username, path));
+	}
+
+	public synchronized void clear() {
+		listings.clear();
+		entries = 0;
+	}
+
+	/**
+	 * @return names cached, adding up all the listings
+	 */
+	public synchronized int getEntries() {
+		return entries;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	private void remove(String key) {
+		Cached cached = listings.remove(key);
+		if (cached != null) {
+			entries -= cached.listing.count();
+		}
+	}
+
+	/**
+	 * Drops the least recently used listings until the cache fits, a single
+	 * listing larger than the cache is not kept either.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Cached>> eldest = listings.entrySet().iterator();
+		while (entries > maxEntries && eldest.hasNext()) {
+			entries -= eldest.next().getValue().listing.count();
+			eldest.remove();
+		}
+	}
+
+	private static String key(String server, String username, String path) {
+		return username + "@" + server + "/" + path;
+	}
+
+	private static class Cached {
+
+		private final RemoteListing listing;
+
+		/**
+		 * When the listing was read from the server
+		 */
+		private final long read;
+
+		Cached(RemoteListing listing, long read) {
+			this.listing = listing;
+			this.read = read;
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * RemoteLister.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.listing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.Calendar;
+import java.util.Locale;
+
+import net.seedboxer.common.ftp.io.DataConnectionClient;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPClientConfig;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPFileEntryParser;
+import org.apache.commons.net.ftp.FTPListParseEngine;
+import org.apache.commons.net.ftp.parser.DefaultFTPFileEntryParserFactory;
+import org.apache.commons.net.ftp.parser.MLSxEntryParser;
+
+/**
+ * Lists the current remote directory into a {@link RemoteListing}.
+ * <p>
+ * With a {@link DataConnectionClient} the reply is parsed line by line
+ * while it is read, using MLSD when the server supports it. Other clients
+ * go through {@link FTPListParseEngine} and parse it in pages.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class RemoteLister {
+
+	private final static int PAGE_SIZE = 1000;
+
+	private final boolean unix;
+
+	private final boolean mlsd;
+
+	/**
+	 * @param unix server system type is UNIX
+	 * @param mlsd server supports MLSD
+	 */
+	public RemoteLister(boolean unix, boolean mlsd) {
+		this.unix = unix;
+		this.mlsd = mlsd;
+	}
+
+	public RemoteListing list(FTPClient client) throws IOException {
+		return list(client, null);
+	}
+
+	/**
+	 * Lists the given directory without moving to it.
+	 *
+	 * @param path directory or null for the current one
+	 */
+	public RemoteListing list(FTPClient client, String path) throws IOException {
+		RemoteListing listing = new RemoteListing();
+		if (client instanceof DataConnectionClient) {
+			stream((DataConnectionClient) client, client, path, listing);
+		} else {
+			page(client, path, listing);
+		}
+		return listing;
+	}
+
+	private void stream(DataConnectionClient dataClient, FTPClient client, String path,
+			RemoteListing listing) throws IOException {
+		FTPFileEntryParser parser;
+		if (mlsd) {
+			parser = MLSxEntryParser.getInstance();
+		} else if (unix) {
+			parser = new DefaultFTPFileEntryParserFactory().createFileEntryParser(FTPClientConfig.SYST_UNIX);
+		} else {
+			parser = new DefaultFTPFileEntryParserFactory().createFileEntryParser(client.getSystemType());
+		}
+
+		Socket socket = dataClient.openDataConnection(mlsd ? "MLSD" : "LIST", path);
+		if (socket == null) {
+			throw new IOException("Listing refused: " + client.getReplyString());
+		}
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(socket.getInputStream(), client.getControlEncoding()));
+		try {
+			String entry;
+			while ((entry = parser.readNextEntry(reader)) != null) {
+				add(listing, parser.parseFTPEntry(entry), mlsd);
+			}
+		} finally {
+			reader.close();
+			socket.close();
+		}
+		if (!client.completePendingCommand()) {
+			throw new IOException("Listing failed: " + client.getReplyString());
+		}
+	}
+
+	private void page(FTPClient client, String path, RemoteListing listing) throws IOException {
+		FTPListParseEngine engine;
+		if (unix) {
+			engine = client.initiateListParsing(FTPClientConfig.SYST_UNIX, path);
+		} else {
+			engine = client.initiateListParsing(path);
+		}
+		while (engine.hasNext()) {
+			for (FTPFile file : engine.getNext(PAGE_SIZE)) {
+				add(listing, file, false);
+			}
+		}
+	}
+
+	private void add(RemoteListing listing, FTPFile file, boolean exactTime) {
+		if (file == null) {
+			return;
+		}
+		String name = file.getName();
+		if (name != null && !isSelfOrParent(file)) {
+			// Only MLSD gives exact times, LIST ones are local and rounded
+			Calendar timestamp = file.getTimestamp();
+			listing.put(name, file.getSize(), exactTime && timestamp != null ?
+					timestamp.getTimeInMillis() : RemoteListing.UNKNOWN_TIME);
+		}
+	}
+
+	/**
+	 * True for the entries of the listed directory itself and of its parent:
+	 * "." and ".." or, in MLSD, the <code>type=cdir</code> and
+	 * <code>type=pdir</code> ones, whatever name the server gives them.
+	 */
+	public static boolean isSelfOrParent(FTPFile file) {
+		String name = file.getName();
+		if (".".equals(name) || "..".equals(name)) {
+			return true;
+		}
+		String entry = file.getRawListing();
+		if (entry == null) {
+			return false;
+		}
+		// Facts go before the first space, the name after it
+		int space = entry.indexOf(' ');
+		String facts = (space >= 0 ? entry.substring(0, space) : entry).toLowerCase(Locale.ENGLISH);
+		for (String fact : facts.split(";")) {
+			if ("type=cdir".equals(fact) || "type=pdir".equals(fact)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
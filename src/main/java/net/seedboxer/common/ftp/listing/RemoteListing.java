@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * RemoteListing.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.listing;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Names and sizes of the entries of a remote directory, stored in an open
+ * addressing table (a name array and a parallel primitive size array) so
+ * big listings do not cost a map entry and a boxed Long per file. The
+ * modification times, when the listing has them, go in another parallel
+ * array allocated with the first one.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class RemoteListing implements Iterable<String> {
+
+	/**
+	 * Size returned for entries that are not in the listing.
+	 */
+	public final static long ABSENT = -1L;
+
+	/**
+	 * Modification time of entries that have none in the listing.
+	 */
+	public final static long UNKNOWN_TIME = Long.MIN_VALUE;
+
+	private final static RemoteListing EMPTY = new RemoteListing(1);
+
+	private String[] names;
+
+	private long[] sizes;
+
+	private long[] modified;
+
+	private int count;
+
+	public RemoteListing() {
+		this(16);
+	}
+
+	public RemoteListing(int expected) {
+		int capacity = 4;
+		while (capacity < expected * 2) {
+			capacity <<= 1;
+		}
+		names = new String[capacity];
+		sizes = new long[capacity];
+	}
+
+	private RemoteListing(RemoteListing other) {
+		names = other.names.clone();
+		sizes = other.sizes.clone();
+		modified = other.modified != null ? other.modified.clone() : null;
+		count = other.count;
+	}
+
+	/**
+	 * @return an independent copy of this listing
+	 */
+	public RemoteListing copy() {
+		return new RemoteListing(this);
+	}
+
+	/**
+	 * Shared listing without entries, must not be modified.
+	 */
+	public static RemoteListing empty() {
+		return EMPTY;
+	}
+
+	public void put(String name, long size) {
+		put(name, size, UNKNOWN_TIME);
+	}
+
+	/**
+	 * @param modifiedTime milliseconds since the epoch or {@link #UNKNOWN_TIME}
+	 */
+	public void put(String name, long size, long modifiedTime) {
+		if ((count + 1) * 2 > names.length) {
+			resize();
+		}
+		int slot = slot(names, name);
+		if (names[slot] == null) {
+			names[slot] = name;
+			count++;
+		}
+		sizes[slot] = size;
+		if (modifiedTime != UNKNOWN_TIME && modified == null) {
+			modified = new long[names.length];
+			Arrays.fill(modified, UNKNOWN_TIME);
+		}
+		if (modified != null) {
+			modified[slot] = modifiedTime;
+		}
+	}
+
+	public boolean contains(String name) {
+		return names[slot(names, name)] != null;
+	}
+
+	/**
+	 * @return size of the entry or {@link #ABSENT}
+	 */
+	public long size(String name) {
+		int slot = slot(names, name);
+		return names[slot] != null ? sizes[slot] : ABSENT;
+	}
+
+	/**
+	 * @return modification time of the entry or {@link #UNKNOWN_TIME}
+	 */
+	public long modified(String name) {
+		if (modified == null) {
+			return UNKNOWN_TIME;
+		}
+		int slot = slot(names, name);
+		return names[slot] != null ? modified[slot] : UNKNOWN_TIME;
+	}
+
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Iterates the names of the entries, in no particular order.
+	 */
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+
+			private final String[] table = names;
+
+			private int next = advance(0);
+
+			@Override
+			public boolean hasNext() {
+				return next < table.length;
+			}
+
+			@Override
+			public String next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				String name = table[next];
+				next = advance(next + 1);
+				return name;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+			private int advance(int from) {
+				while (from < table.length && table[from] == null) {
+					from++;
+				}
+				return from;
+			}
+		};
+	}
+
+	public void clear() {
+		Arrays.fill(names, null);
+		count = 0;
+	}
+
+	private void resize() {
+		String[] oldNames = names;
+		long[] oldSizes = sizes;
+		long[] oldModified = modified;
+		names = new String[oldNames.length * 2];
+		sizes = new long[oldNames.length * 2];
+		if (oldModified != null) {
+			modified = new long[oldNames.length * 2];
+		}
+		for (int i = 0; i < oldNames.length; i++) {
+			if (oldNames[i] != null) {
+				int slot = slot(names, oldNames[i]);
+				names[slot] = oldNames[i];
+				sizes[slot] = oldSizes[i];
+				if (oldModified != null) {
+					modified[slot] = oldModified[i];
+				}
+			}
+		}
+	}
+
+	private static int slot(String[] table, String name) {
+		int h = name.hashCode();
+		h ^= (h >>> 16);
+		int mask = table.length - 1;
+		int slot = h & mask;
+		while (table[slot] != null && !table[slot].equals(name)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * FtpMetrics.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.metrics;
+
+/**
+ * Sink of the measures taken by the uploader. Implementations are called
+ * from the transfer threads, so they must be thread safe and fast.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public interface FtpMetrics {
+
+	/**
+	 * A control command got its reply. Besides the FTP commands there are
+	 * CONNECT (connect and login) and COMPLETE (the final reply of a transfer).
+	 *
+	 * @param command
+	 * @param replyCode
+	 * @param nanos from the command sent to the reply received
+	 */
+	void commandCompleted(String command, int replyCode, long nanos);
+
+	/**
+	 * A data connection finished sending its bytes.
+	 */
+	void dataTransferred(long bytes, long nanos);
+
+	/**
+	 * A file (or the rest of it, when resumed) was uploaded.
+	 */
+	void fileUploaded(String fileName, long bytes, long nanos);
+
+	/**
+	 * An operation failed and is retried.
+	 */
+	void retried(String operation);
+
+	/**
+	 * A session was released by the uploader.
+	 *
+	 * @param server
+	 * @param bytes sent through the session while it was leased
+	 * @param nanos the session was leased
+	 */
+	void sessionReleased(String server, long bytes, long nanos);
+
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * MetricsCollector.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link FtpMetrics} that keeps everything in memory: a latency histogram
+ * for each command, the data transfers, the throughput of each file, the
+ * bytes of each session and the retries.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class MetricsCollector implements FtpMetrics {
+
+	private final ConcurrentMap<String, Histogram> commands = new ConcurrentHashMap<String, Histogram>();
+
+	private final ConcurrentMap<String, AtomicLong> failures = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final ConcurrentMap<String, AtomicLong> retries = new ConcurrentHashMap<String, AtomicLong>();
+
+	private final Histogram transferLatency = new Histogram();
+
+	private final AtomicLong transferredBytes = new AtomicLong();
+
+	private final Histogram fileThroughput = new Histogram();
+
+	private final Histogram sessionBytes = new Histogram();
+
+	@Override
+	public void commandCompleted(String command, int replyCode, long nanos) {
+		latency(command).record(nanos);
+		if (replyCode >= 400) {
+			counter(failures, command).incrementAndGet();
+		}
+	}
+
+	@Override
+	public void dataTransferred(long bytes, long nanos) {
+		transferLatency.record(nanos);
+		transferredBytes.addAndGet(bytes);
+	}
+
+	@Override
+	public void fileUploaded(String fileName, long bytes, long nanos) {
+		if (nanos > 0) {
+			fileThroughput.record((long) (bytes * 1000000000.0 / nanos));
+		}
+	}
+
+	@Override
+	public void retried(String operation) {
+		counter(retries, operation).incrementAndGet();
+	}
+
+	@Override
+	public void sessionReleased(String server, long bytes, long nanos) {
+		sessionBytes.record(bytes);
+	}
+
+	/**
+	 * @return latency in nanos of each command
+	 */
+	public Map<String, Histogram> getCommandLatencies() {
+		return Collections.unmodifiableMap(commands);
+	}
+
+	/**
+	 * @return replies 4xx and 5xx of each command
+	 */
+	public Map<String, Long> getCommandFailures() {
+		return snapshot(failures);
+	}
+
+	public Map<String, Long> getRetries() {
+		return snapshot(retries);
+	}
+
+	/**
+	 * @return duration in nanos of the data transfers
+	 */
+	public Histogram getTransferLatency() {
+		return transferLatency;
+	}
+
+	public long getTransferredBytes() {
+		return transferredBytes.get();
+	}
+
+	/**
+	 * @return bytes per second of each file
+	 */
+	public Histogram getFileThroughput() {
+		return fileThroughput;
+	}
+
+	public Histogram getSessionBytes() {
+		return sessionBytes;
+	}
+
+	private Histogram latency(String command) {
+		Histogram histogram = commands.get(command);
+		if (histogram == null) {
+			Histogram created = new Histogram();
+			histogram = commands.putIfAbsent(command, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		return histogram;
+	}
+
+	private static AtomicLong counter(ConcurrentMap<String, AtomicLong> counters, String key) {
+		AtomicLong counter = counters.get(key);
+		if (counter == null) {
+			AtomicLong created = new AtomicLong();
+			counter = counters.putIfAbsent(key, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		return counter;
+	}
+
+	private static Map<String, Long> snapshot(Map<String, AtomicLong> counters) {
+		Map<String, Long> snapshot = new HashMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+			snapshot.put(entry.getKey(), entry.getValue().get());
+		}
+		return snapshot;
+	}
+
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * SessionMetrics.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.net.ProtocolCommandEvent;
+import org.apache.commons.net.ProtocolCommandListener;
+
+/**
+ * Times the control commands of a session while it is leased by the
+ * uploader. A session sends one command at a time, so the reply always
+ * belongs to the last command sent. Only the first reply is timed, the
+ * final reply of a transfer is reported as COMPLETE by the uploader.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class SessionMetrics implements ProtocolCommandListener {
+
+	private final FtpMetrics sink;
+
+	private final String server;
+
+	private final long leased = System.nanoTime();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private volatile String command;
+
+	private volatile long sent;
+
+	public SessionMetrics(FtpMetrics sink, String server) {
+		this.sink = sink;
+		this.server = server;
+	}
+
+	@Override
+	public void protocolCommandSent(ProtocolCommandEvent event) {
+		sent = System.nanoTime();
+		command = event.getCommand();
+	}
+
+	@Override
+	public void protocolReplyReceived(ProtocolCommandEvent event) {
+		String command = this.command;
+		if (command != null) {
+			this.command = null;
+			sink.commandCompleted(command, event.getReplyCode(), System.nanoTime() - sent);
+		}
+	}
+
+	public void bytesTransferred(long bytes) {
+		this.bytes.addAndGet(bytes);
+	}
+
+	/**
+	 * Reports the session to the sink.
+	 */
+	public void released() {
+		sink.sessionReleased(server, bytes.get(), System.nanoTime() - leased);
+	}
+
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * FtpConnectionPool.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.pool;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.seedboxer.common.ftp.exception.FtpConnectionException;
+import net.seedboxer.common.ftp.exception.FtpException;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of logged in {@link FTPClient} sessions, grouped by {@link FtpSessionKey}.
+ * <p>
+ * Idle sessions are kept alive with NOOP and closed after the idle timeout.
+ * On borrow the session is validated by moving it back to its login
+ * directory, so the caller always gets it in a known place. At most
+ * <code>maxPerHost</code> sessions are leased at the same time for each key,
+ * other borrowers wait until one is released.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class FtpConnectionPool {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(FtpConnectionPool.class);
+
+	private final ConcurrentMap<FtpSessionKey, HostPool> pools = new ConcurrentHashMap<FtpSessionKey, HostPool>();
+
+	private final int maxPerHost;
+
+	private final long idleTimeout;
+
+	private final long keepAliveInterval;
+
+	private final long borrowTimeout;
+
+	private final ScheduledExecutorService maintenance;
+
+	/**
+	 * @param maxPerHost max sessions leased at the same time for each key
+	 * @param idleTimeout millis an idle session is kept open
+	 * @param keepAliveInterval millis between NOOPs sent on idle sessions
+	 * @param borrowTimeout millis to wait for a free session
+	 */
+	public FtpConnectionPool(int maxPerHost, long idleTimeout, long keepAliveInterval, long borrowTimeout) {
+		if (maxPerHost < 1 || keepAliveInterval < 1) {
+			throw new IllegalArgumentException("Max per host and keep alive interval must be positive");
+		}
+		this.maxPerHost = maxPerHost;
+		this.idleTimeout = idleTimeout;
+		this.keepAliveInterval = keepAliveInterval;
+		this.borrowTimeout = borrowTimeout;
+		this.maintenance = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ftp-pool-maintenance");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.maintenance.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				maintain();
+			}
+		}, keepAliveInterval, keepAliveInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Leases a session, reusing an idle one if possible.
+	 *
+	 * @param key
+	 * @param factory used when there is no idle session
+	 * @return session placed in its login directory
+	 * @throws FtpException
+	 */
+	public FTPClient borrow(FtpSessionKey key, FtpSessionFactory factory) throws FtpException {
+		HostPool pool = hostPool(key);
+		try {
+			if (!pool.permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS)) {
+				throw new FtpConnectionException(new TimeoutException("No free session for " + key));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FtpConnectionException(e);
+		}
+
+		try {
+			PooledSession session;
+			while ((session = pool.idle.pollFirst()) != null) {
+				if (validate(session)) {
+					LOGGER.trace("Reusing session for {}", key);
+					return session.client;
+				}
+				destroy(session.client);
+			}
+
+			FTPClient client = factory.create();
+			pool.homes.put(client, home(client));
+			LOGGER.debug("New session for {}", key);
+			return client;
+		} catch (FtpException e) {
+			pool.permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			pool.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return sessions that can be leased for the key right now, without
+	 *         waiting for another one to be released
+	 */
+	public int available(FtpSessionKey key) {
+		return hostPool(key).permits.availablePermits();
+	}
+
+	/**
+	 * Gives back a session that can be reused.
+	 */
+	public void release(FtpSessionKey key, FTPClient client) {
+		HostPool pool = hostPool(key);
+		String home = pool.homes.get(client);
+		if (client.isConnected() && home != null && !maintenance.isShutdown()) {
+			pool.idle.offerFirst(new PooledSession(client, home));
+		} else {
+			pool.homes.remove(client);
+			destroy(client);
+		}
+		pool.permits.release();
+	}
+
+	/**
+	 * Gives back a session that must not be reused, for example after a
+	 * failed transfer.
+	 */
+	public void invalidate(FtpSessionKey key, FTPClient client) {
+		HostPool pool = hostPool(key);
+		pool.homes.remove(client);
+		destroy(client);
+		pool.permits.release();
+	}
+
+	/**
+	 * Closes every idle session and stops the keep alive. Leased sessions are
+	 * closed when they are released.
+	 */
+	public void close() {
+		maintenance.shutdownNow();
+		for (HostPool pool : pools.values()) {
+			PooledSession session;
+			while ((session = pool.idle.pollFirst()) != null) {
+				pool.homes.remove(session.client);
+				destroy(session.client);
+			}
+		}
+	}
+
+	private HostPool hostPool(FtpSessionKey key) {
+		HostPool pool = pools.get(key);
+		if (pool == null) {
+			pool = new HostPool(maxPerHost);
+			HostPool existing = pools.putIfAbsent(key, pool);
+			if (existing != null) {
+				pool = existing;
+			}
+		}
+		return pool;
+	}
+
+	private void maintain() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<FtpSessionKey, HostPool> entry : pools.entrySet()) {
+			HostPool pool = entry.getValue();
+			for (PooledSession session : pool.idle) {
+				if (now - session.lastUsed < keepAliveInterval) {
+					continue;
+				}
+				// Take it out of the pool while it is checked
+				if (!pool.idle.removeFirstOccurrence(session)) {
+					continue;
+				}
+				if (now - session.lastUsed >= idleTimeout) {
+					LOGGER.debug("Closing idle session for {}", entry.getKey());
+					pool.homes.remove(session.client);
+					destroy(session.client);
+				} else if (keepAlive(session)) {
+					pool.idle.offerLast(session);
+				} else {
+					pool.homes.remove(session.client);
+					destroy(session.client);
+				}
+			}
+		}
+	}
+
+	private boolean keepAlive(PooledSession session) {
+		try {
+			return session.client.sendNoOp();
+		} catch (IOException e) {
+			LOGGER.trace("Keep alive failed", e);
+			return false;
+		}
+	}
+
+	private boolean validate(PooledSession session) {
+		try {
+			return session.client.isConnected() && session.client.changeWorkingDirectory(session.home);
+		} catch (IOException e) {
+			LOGGER.trace("Session validation failed", e);
+			return false;
+		}
+	}
+
+	private String home(FTPClient client) throws FtpException {
+		try {
+			String home = client.printWorkingDirectory();
+			if (home == null) {
+				throw new FtpConnectionException(new IOException(client.getReplyString()));
+			}
+			return home;
+		} catch (IOException e) {
+			destroy(client);
+			throw new FtpConnectionException(e);
+		}
+	}
+
+	private void destroy(FTPClient client) {
+		try {
+			if (client.isConnected()) {
+				client.logout();
+				client.disconnect();
+			}
+		} catch (IOException e) { /*ignore */ }
+	}
+
+	private static class HostPool {
+
+		private final BlockingDeque<PooledSession> idle = new LinkedBlockingDeque<PooledSession>();
+
+		private final Map<FTPClient, String> homes = new ConcurrentHashMap<FTPClient, String>();
+
+		private final Semaphore permits;
+
+		public HostPool(int maxPerHost) {
+			this.permits = new Semaphore(maxPerHost, true);
+		}
+	}
+
+	private static class PooledSession {
+
+		private final FTPClient client;
+
+		private final String home;
+
+		private final long lastUsed = System.currentTimeMillis();
+
+		public PooledSession(FTPClient client, String home) {
+			this.client = client;
+			this.home = home;
+		}
+	}
+
+}
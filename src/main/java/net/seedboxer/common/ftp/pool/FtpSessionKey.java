@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * FtpSessionKey.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.pool;
+
+import net.seedboxer.common.ftp.io.TlsOptions;
+
+/**
+ * Identifies the sessions that can be shared in a {@link FtpConnectionPool}:
+ * same server, same user and same TLS options.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class FtpSessionKey {
+
+	private final String server;
+
+	private final String username;
+
+	private final TlsOptions tls;
+
+	public FtpSessionKey(String server, String username, boolean ssl) {
+		this(server, username, ssl ? TlsOptions.DEFAULT : null);
+	}
+
+	/**
+	 * @param tls FTPS options or null for plain FTP
+	 */
+	public FtpSessionKey(String server, String username, TlsOptions tls) {
+		if (server == null) {
+			throw new IllegalArgumentException("Server can not be null");
+		}
+		this.server = server;
+		this.username = username;
+		this.tls = tls;
+	}
+
+	public String getServer() {
+		return server;
+	}
+
+	public String getUsername() {
+		return username;
+	}
+
+	public boolean isSsl() {
+		return tls != null;
+	}
+
+	public TlsOptions getTlsOptions() {
+		return tls;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = server.hashCode();
+		result = 31 * result + (username != null ? username.hashCode() : 0);
+		result = 31 * result + (tls != null ? tls.hashCode() : 0);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof FtpSessionKey)) {
+			return false;
+		}
+		FtpSessionKey other = (FtpSessionKey) obj;
+		return server.equals(other.server)
+				&& (username == null ? other.username == null : username.equals(other.username))
+				&& (tls == null ? other.tls == null : tls.equals(other.tls));
+	}
+
+	@Override
+	public String toString() {
+		return username + "@" + server + (tls != null ? " (" + tls + ")" : "");
+	}
+
+}
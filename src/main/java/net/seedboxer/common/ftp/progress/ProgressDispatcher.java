@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * ProgressDispatcher.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.progress;
+
+import java.io.File;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import net.seedboxer.common.ftp.FtpUploaderEventListener;
+import net.seedboxer.common.ftp.FtpUploaderListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Listener that takes the notifications off the transfer threads. The bytes
+ * are added to a counter and delivered to the delegate, from its own
+ * thread, every interval or as soon as the threshold is reached. File
+ * events are delivered in order, after the bytes transferred before them.
+ * <p>
+ * A slow delegate (a database, a UI) no longer slows the transfer, and it
+ * is always called from a single thread. Call {@link #close()} once the
+ * uploads finished to deliver what is left.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class ProgressDispatcher implements FtpUploaderEventListener {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(ProgressDispatcher.class);
+
+	private final FtpUploaderListener delegate;
+
+	private final FtpUploaderEventListener eventDelegate;
+
+	private final long interval;
+
+	private final long threshold;
+
+	private final AtomicLong pending = new AtomicLong();
+
+	private final Queue<Runnable> events = new ConcurrentLinkedQueue<Runnable>();
+
+	private final Thread dispatcher;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param delegate listener receiving the notifications, if it is a
+	 * {@link FtpUploaderEventListener} it receives the file events too
+	 * @param interval millis between deliveries
+	 * @param threshold bytes that trigger a delivery before the interval
+	 */
+	public ProgressDispatcher(FtpUploaderListener delegate, long interval, long threshold) {
+		if (interval < 1 || threshold < 1) {
+			throw new IllegalArgumentException("Interval and threshold must be positive");
+		}
+		this.delegate = delegate;
+		this.eventDelegate = delegate instanceof FtpUploaderEventListener ? (FtpUploaderEventListener) delegate : null;
+		this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+		this.threshold = threshold;
+		this.dispatcher = new Thread(new Dispatcher(), "ftp-progress");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	@Override
+	public void bytesTransferred(long bytesTransferred) {
+		long total = pending.addAndGet(bytesTransferred);
+		if (total >= threshold && total - bytesTransferred < threshold) {
+			LockSupport.unpark(dispatcher);
+		}
+	}
+
+	@Override
+	public void fileStarted(final File file) {
+		if (eventDelegate != null) {
+			enqueue(new Runnable() {
+				@Override
+				public void run() {
+					eventDelegate.fileStarted(file);
+				}
+			});
+		}
+	}
+
+	@Override
+	public void fileResumed(final File file, final long offset) {
+		if (eventDelegate != null) {
+			enqueue(new Runnable() {
+				@Override
+				public void run() {
+					eventDelegate.fileResumed(file, offset);
+				}
+			});
+		}
+	}
+
+	@Override
+	public void fileSkipped(final File file) {
+		if (eventDelegate != null) {
+			enqueue(new Runnable() {
+				@Override
+				public void run() {
+					eventDelegate.fileSkipped(file);
+				}
+			});
+		}
+	}
+
+	@Override
+	public void fileRetried(final File file, final int retry, final Throwable cause) {
+		if (eventDelegate != null) {
+			enqueue(new Runnable() {
+				@Override
+				public void run() {
+					eventDelegate.fileRetried(file, retry, cause);
+				}
+			});
+		}
+	}
+
+	@Override
+	public void fileFinished(final File file) {
+		if (eventDelegate != null) {
+			enqueue(new Runnable() {
+				@Override
+				public void run() {
+					eventDelegate.fileFinished(file);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Delivers what is pending and stops the dispatcher thread.
+	 */
+	public void close() throws InterruptedException {
+		closed = true;
+		LockSupport.unpark(dispatcher);
+		dispatcher.join();
+	}
+
+	/**
+	 * Queues the event behind the bytes transferred so far by this thread.
+	 */
+	private void enqueue(Runnable event) {
+		final long bytes = pending.getAndSet(0);
+		if (bytes > 0) {
+			events.add(new Runnable() {
+				@Override
+				public void run() {
+					delegate.bytesTransferred(bytes);
+				}
+			});
+		}
+		events.add(event);
+		LockSupport.unpark(dispatcher);
+	}
+
+	private void deliver() {
+		Runnable event;
+		while ((event = events.poll()) != null) {
+			dispatch(event);
+		}
+		final long bytes = pending.getAndSet(0);
+		if (bytes > 0) {
+			dispatch(new Runnable() {
+				@Override
+				public void run() {
+					delegate.bytesTransferred(bytes);
+				}
+			});
+		}
+	}
+
+	private void dispatch(Runnable event) {
+		try {
+			event.run();
+		} catch (RuntimeException e) {
+			LOGGER.warn("Listener failed to handle the progress", e);
+		}
+	}
+
+	private class Dispatcher implements Runnable {
+
+		@Override
+		public void run() {
+			while (!closed) {
+				LockSupport.parkNanos(ProgressDispatcher.this, interval);
+				deliver();
+			}
+			deliver();
+		}
+	}
+
+}
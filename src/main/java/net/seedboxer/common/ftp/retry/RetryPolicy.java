@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * RetryPolicy.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.retry;
+
+import java.util.Random;
+
+/**
+ * How many times a failed transfer is retried and how long to wait before
+ * each retry. The delay starts at the initial one and doubles on every
+ * retry up to the max, with up to a fifth of random jitter so the sessions
+ * dropped by the same failure do not reconnect all at once.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class RetryPolicy {
+
+	private final int maxRetries;
+
+	private final long initialDelay;
+
+	private final long maxDelay;
+
+	private final Random random = new Random();
+
+	/**
+	 * @param maxRetries retries of each transfer
+	 * @param initialDelay millis before the first retry
+	 * @param maxDelay max millis between retries
+	 */
+	public RetryPolicy(int maxRetries, long initialDelay, long maxDelay) {
+		if (maxRetries < 0 || initialDelay < 0 || maxDelay < initialDelay) {
+			throw new IllegalArgumentException("Invalid retries or delays");
+		}
+		this.maxRetries = maxRetries;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * @param retry number of the retry, starting at 1
+	 * @return millis to wait before it
+	 */
+	public long getDelay(int retry) {
+		long delay = initialDelay;
+		for (int i = 1; i < retry && delay < maxDelay; i++) {
+			delay = delay > maxDelay / 2 ? maxDelay : delay * 2;
+		}
+		return delay - (long) (delay * 0.2 * random.nextDouble());
+	}
+
+}
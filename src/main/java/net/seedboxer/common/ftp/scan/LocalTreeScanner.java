@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * LocalTreeScanner.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Walks a local tree in a background thread and hands the entries through
+ * a bounded queue, so the uploader starts transferring while the rest of
+ * the tree is still being read. The order is the one of the sequential
+ * upload: a directory, its subdirectories (recursively) and then its files.
+ * <p>
+ * Each directory is read with a single <code>listFiles()</code> and each
+ * entry is classified once, with <code>isDirectory()</code>, in the scanner
+ * thread; only files have their length and modification time read. The
+ * stats on slow (network) storage no longer stall the transfers, and a
+ * directory entry carries what was read of its children so consumers do
+ * not list it again. Memory is bounded by the queue and the depth of the
+ * tree.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class LocalTreeScanner {
+
+	public enum Kind {
+		/**
+		 * Start of a directory
+		 */
+		DIRECTORY,
+		/**
+		 * A file inside the last directory started
+		 */
+		FILE,
+		/**
+		 * End of the last directory started
+		 */
+		END_DIRECTORY
+	}
+
+	/**
+	 * An entry of the tree.
+	 */
+	public static class Entry {
+
+		private final Kind kind;
+
+		private final File file;
+
+		private final long length;
+
+		private final long lastModified;
+
+		private final List<Entry> children;
+
+		Entry(Kind kind, File file, long length, long lastModified, List<Entry> children) {
+			this.kind = kind;
+			this.file = file;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.children = children;
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/**
+		 * @return length of the file, as read by the scanner
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * @return modification time of the file, as read by the scanner
+		 */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return the files and subdirectories of a {@link Kind#DIRECTORY}
+		 *         entry, the subdirectories with neither length, time nor
+		 *         children of their own
+		 */
+		public List<Entry> getChildren() {
+			return children;
+		}
+	}
+
+	private final static Entry END = new Entry(null, null, 0, 0, Collections.<Entry>emptyList());
+
+	private final File root;
+
+	private final BlockingQueue<Entry> queue;
+
+	private final Thread scanner;
+
+	private volatile IOException failure;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param root directory to walk
+	 * @param capacity max entries read ahead of the consumer
+	 */
+	public LocalTreeScanner(File root, int capacity) {
+		this.root = root;
+		this.queue = new ArrayBlockingQueue<Entry>(capacity);
+		this.scanner = new Thread(new Walker(), "ftp-scanner");
+		scanner.setDaemon(true);
+	}
+
+	public void start() {
+		scanner.start();
+	}
+
+	/**
+	 * Next entry of the tree, waiting for the scanner if needed.
+	 *
+	 * @return the entry or null at the end of the tree
+	 * @throws IOException if a directory could not be read
+	 */
+	public Entry next() throws IOException {
+		Entry entry;
+		try {
+			entry = queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while scanning " + root);
+		}
+		if (entry == END) {
+			// Keep returning the end
+			queue.offer(END);
+			if (failure != null) {
+				throw failure;
+			}
+			return null;
+		}
+		return entry;
+	}
+
+	/**
+	 * Stops the scanner, the consumer does not want more entries.
+	 */
+	public void close() {
+		closed = true;
+		scanner.interrupt();
+	}
+
+	private class Walker implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				walk(root);
+			} catch (IOException e) {
+				failure = e;
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				queue.put(END);
+			} catch (InterruptedException e) {
+				// Closed
+			}
+		}
+
+		private void walk(File directory) throws IOException, InterruptedException {
+			File[] children = directory.listFiles();
+			if (children == null) {
+				throw new IOException("Could not list the directory " + directory);
+			}
+			List<Entry> entries = new ArrayList<Entry>(children.length);
+			List<File> directories = new ArrayList<File>();
+			List<Entry> files = new ArrayList<Entry>();
+			for (File child : children) {
+				if (child.isDirectory()) {
+					directories.add(child);
+					entries.add(new Entry(Kind.DIRECTORY, child, 0, 0, null));
+				} else {
+					long lastModified = child.lastModified();
+					// Gone since it was listed or a broken link
+					if (lastModified == 0 && !child.exists()) {
+						continue;
+					}
+					Entry file = new Entry(Kind.FILE, child, child.length(), lastModified, null);
+					files.add(file);
+					entries.add(file);
+				}
+			}
+
+			put(new Entry(Kind.DIRECTORY, directory, 0, 0, Collections.unmodifiableList(entries)));
+			for (File child : directories) {
+				walk(child);
+			}
+			for (Entry file : files) {
+				put(file);
+			}
+			put(new Entry(Kind.END_DIRECTORY, directory, 0, 0, null));
+		}
+
+		private void put(Entry entry) throws InterruptedException {
+			if (closed) {
+				throw new InterruptedException();
+			}
+			queue.put(entry);
+		}
+	}
+
+}
@@ -0,0 +1,338 @@
+/*******************************************************************************
+ * UploadJob.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.scheduler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.seedboxer.common.ftp.FtpUploader;
+import net.seedboxer.common.ftp.FtpUploaderEventListener;
+import net.seedboxer.common.ftp.FtpUploaderListener;
+import net.seedboxer.common.ftp.exception.FtpException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An upload submitted to an {@link UploadScheduler}. Jobs with a higher
+ * priority start first, jobs with the same priority start in the order they
+ * were submitted.
+ * <p>
+ * The job is the handle of the transfer: it can be cancelled on its own,
+ * waited for as a {@link Future} and tells the done listeners when it
+ * completes, fails or is cancelled, so the caller does not need a thread
+ * blocked on each job.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class UploadJob implements Future<Void> {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(UploadJob.class);
+
+	static final Comparator<UploadJob> PRIORITY_ORDER = new Comparator<UploadJob>() {
+		@Override
+		public int compare(UploadJob a, UploadJob b) {
+			if (a.priority != b.priority) {
+				return a.priority > b.priority ? -1 : 1;
+			}
+			return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+		}
+	};
+
+	private final UploadScheduler scheduler;
+
+	private final String server;
+
+	private final FtpUploader uploader;
+
+	private final File file;
+
+	private final FtpUploaderListener listener;
+
+	private final long sequence;
+
+	private final AtomicLong bytesTransferred = new AtomicLong();
+
+	private final List<Runnable> doneListeners = new ArrayList<Runnable>();
+
+	private volatile int priority;
+
+	private volatile JobState state = JobState.QUEUED;
+
+	private volatile Throwable error;
+
+	/**
+	 * State requested by pause or cancel while the job was running
+	 */
+	private JobState stopRequest;
+
+	private long changedAt = System.nanoTime();
+
+	private long queueTime;
+
+	private long runningTime;
+
+	UploadJob(UploadScheduler scheduler, String server, FtpUploader uploader, File file, int priority,
+			FtpUploaderListener listener, long sequence) {
+		this.scheduler = scheduler;
+		this.server = server;
+		this.uploader = uploader;
+		this.file = file;
+		this.priority = priority;
+		this.listener = listener;
+		this.sequence = sequence;
+	}
+
+	public String getServer() {
+		return server;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public JobState getState() {
+		return state;
+	}
+
+	/**
+	 * @return the error of a failed job
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	public long getBytesTransferred() {
+		return bytesTransferred.get();
+	}
+
+	/**
+	 * @return millis the job has been waiting in the queue
+	 */
+	public synchronized long getQueueWaitTime() {
+		long wait = queueTime;
+		if (state == JobState.QUEUED) {
+			wait += System.nanoTime() - changedAt;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(wait);
+	}
+
+	/**
+	 * @return millis the job has been uploading
+	 */
+	public synchronized long getRunningTime() {
+		long running = runningTime;
+		if (state == JobState.RUNNING) {
+			running += System.nanoTime() - changedAt;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(running);
+	}
+
+	/**
+	 * @return bytes per second while the job was uploading
+	 */
+	public long getThroughput() {
+		long running = getRunningTime();
+		return running > 0 ? getBytesTransferred() * 1000 / running : 0;
+	}
+
+	/**
+	 * Waits until the job is completed, failed or cancelled.
+	 */
+	public synchronized void await() throws InterruptedException {
+		while (!state.isDone()) {
+			wait();
+		}
+	}
+
+	/**
+	 * Waits until the job is completed, failed or cancelled.
+	 *
+	 * @return false if the timeout elapsed first
+	 */
+	public synchronized boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!state.isDone()) {
+			long left = deadline - System.nanoTime();
+			if (left <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, left);
+		}
+		return true;
+	}
+
+	/**
+	 * Cancels the job, see {@link UploadScheduler#cancel(UploadJob)}. A
+	 * running job is cancelled right away, its upload stops in background.
+	 *
+	 * @param mayInterruptIfRunning ignored, running jobs are always aborted
+	 * @return false if the job was already done
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		try {
+			return scheduler.cancel(this);
+		} catch (FtpException e) {
+			LOGGER.warn("Error aborting upload of {}", file, e);
+			return false;
+		}
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return state == JobState.CANCELLED;
+	}
+
+	@Override
+	public boolean isDone() {
+		return state.isDone();
+	}
+
+	/**
+	 * Waits until the job is done.
+	 *
+	 * @throws CancellationException if the job was cancelled
+	 * @throws ExecutionException with the error of a failed job
+	 */
+	@Override
+	public Void get() throws InterruptedException, ExecutionException {
+		await();
+		return result();
+	}
+
+	@Override
+	public Void get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!await(timeout, unit)) {
+			throw new TimeoutException();
+		}
+		return result();
+	}
+
+	/**
+	 * Runs the listener when the job is done, right now if it already is.
+	 * Listeners run in the thread that finishes the job, they should not
+	 * block.
+	 */
+	public void addDoneListener(Runnable listener) {
+		synchronized (this) {
+			if (!state.isDone()) {
+				doneListeners.add(listener);
+				return;
+			}
+		}
+		run(listener);
+	}
+
+	private Void result() throws ExecutionException {
+		switch (state) {
+		case CANCELLED:
+			throw new CancellationException();
+		case FAILED:
+			throw new ExecutionException(error);
+		default:
+			return null;
+		}
+	}
+
+	private void run(Runnable listener) {
+		try {
+			listener.run();
+		} catch (RuntimeException e) {
+			LOGGER.warn("Done listener of {} failed", file, e);
+		}
+	}
+
+	/**
+	 * Runs the pending done listeners if the job is done. Called by the
+	 * scheduler without holding its lock.
+	 */
+	void fireDone() {
+		List<Runnable> listeners;
+		synchronized (this) {
+			if (!state.isDone() || doneListeners.isEmpty()) {
+				return;
+			}
+			listeners = new ArrayList<Runnable>(doneListeners);
+			doneListeners.clear();
+		}
+		for (Runnable listener : listeners) {
+			run(listener);
+		}
+	}
+
+	FtpUploader getUploader() {
+		return uploader;
+	}
+
+	void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	JobState getStopRequest() {
+		return stopRequest;
+	}
+
+	void setStopRequest(JobState stopRequest) {
+		this.stopRequest = stopRequest;
+	}
+
+	synchronized void changeState(JobState state, Throwable error) {
+		long now = System.nanoTime();
+		if (this.state == JobState.QUEUED) {
+			queueTime += now - changedAt;
+		} else if (this.state == JobState.RUNNING) {
+			runningTime += now - changedAt;
+		}
+		changedAt = now;
+		this.state = state;
+		this.error = error;
+		notifyAll();
+	}
+
+	void bytesTransferred(long bytes) {
+		bytesTransferred.addAndGet(bytes);
+		if (listener != null) {
+			listener.bytesTransferred(bytes);
+		}
+	}
+
+	/**
+	 * @return the listener if it takes the file events, otherwise null
+	 */
+	FtpUploaderEventListener getEventListener() {
+		return listener instanceof FtpUploaderEventListener ? (FtpUploaderEventListener) listener : null;
+	}
+
+}
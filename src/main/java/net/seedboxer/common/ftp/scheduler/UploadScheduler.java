@@ -0,0 +1,431 @@
+/*******************************************************************************
+ * UploadScheduler.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.scheduler;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.seedboxer.common.ftp.FtpUploader;
+import net.seedboxer.common.ftp.FtpUploaderEventListener;
+import net.seedboxer.common.ftp.FtpUploaderListener;
+import net.seedboxer.common.ftp.exception.AbortedTransferException;
+import net.seedboxer.common.ftp.exception.FtpException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs upload jobs in a fixed number of threads, by priority and with a
+ * limit of concurrent jobs for each server (many servers reject more than a
+ * few sessions per user).
+ * <p>
+ * Each job brings its own configured {@link FtpUploader}, the scheduler
+ * connects, uploads and disconnects it. Pausing or cancelling a running job
+ * aborts its uploader, a paused job resumes from what is already in the
+ * server.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class UploadScheduler {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(UploadScheduler.class);
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition changed = lock.newCondition();
+
+	private final TreeSet<UploadJob> queue = new TreeSet<UploadJob>(UploadJob.PRIORITY_ORDER);
+
+	private final Map<String, Integer> running = new HashMap<String, Integer>();
+
+	private final Map<String, Integer> serverLimits = new HashMap<String, Integer>();
+
+	private final int defaultServerLimit;
+
+	private final Thread[] workers;
+
+	private long sequence;
+
+	private boolean closed;
+
+	/**
+	 * @param threads max jobs running at the same time
+	 * @param defaultServerLimit max jobs running at the same time for each server
+	 */
+	public UploadScheduler(int threads, int defaultServerLimit) {
+		if (threads < 1 || defaultServerLimit < 1) {
+			throw new IllegalArgumentException("Threads and server limit must be positive");
+		}
+		this.defaultServerLimit = defaultServerLimit;
+		this.workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(new Worker(), "ftp-scheduler-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Changes the max jobs running at the same time for the given server.
+	 */
+	public void setServerLimit(String server, int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("Server limit must be positive");
+		}
+		lock.lock();
+		try {
+			serverLimits.put(server, limit);
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Queues the upload of the file.
+	 *
+	 * @param server destination, used for the concurrency limit
+	 * @param uploader configured uploader, used only by this job
+	 * @param file
+	 * @param priority higher starts first
+	 * @param listener also told the file events if it is a {@link FtpUploaderEventListener}
+	 * @return the queued job
+	 */
+	public UploadJob submit(String server, FtpUploader uploader, File file, int priority,
+			FtpUploaderListener listener) {
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IllegalStateException("The scheduler is shut down");
+			}
+			UploadJob job = new UploadJob(this, server, uploader, file, priority, listener, sequence++);
+			queue.add(job);
+			changed.signalAll();
+			return job;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Changes the priority of the job, moving it in the queue.
+	 */
+	public void setPriority(UploadJob job, int priority) {
+		lock.lock();
+		try {
+			if (queue.remove(job)) {
+				job.setPriority(priority);
+				queue.add(job);
+				changed.signalAll();
+			} else {
+				job.setPriority(priority);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Pauses a queued or running job.
+	 *
+	 * @return false if the job was not queued or running
+	 */
+	public boolean pause(UploadJob job) throws FtpException {
+		return stop(job, JobState.PAUSED);
+	}
+
+	/**
+	 * Puts a paused job back in the queue, in the place given by its
+	 * priority and submission order.
+	 *
+	 * @return false if the job was not paused
+	 */
+	public boolean resume(UploadJob job) {
+		lock.lock();
+		try {
+			if (closed || job.getState() != JobState.PAUSED) {
+				return false;
+			}
+			job.changeState(JobState.QUEUED, null);
+			queue.add(job);
+			changed.signalAll();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Cancels a queued, paused or running job. A running job is done (and
+	 * cancelled) when this returns, its upload is aborted and stops later.
+	 *
+	 * @return false if the job was already done
+	 */
+	public boolean cancel(UploadJob job) throws FtpException {
+		return stop(job, JobState.CANCELLED);
+	}
+
+	/**
+	 * @return the queued jobs in the order they will start
+	 */
+	public List<UploadJob> getQueuedJobs() {
+		lock.lock();
+		try {
+			return new ArrayList<UploadJob>(queue);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Cancels the queued and paused jobs. Running jobs are left to finish and
+	 * the threads exit afterwards.
+	 */
+	public void shutdown() {
+		List<UploadJob> cancelled;
+		lock.lock();
+		try {
+			closed = true;
+			cancelled = new ArrayList<UploadJob>(queue);
+			for (UploadJob job : queue) {
+				job.changeState(JobState.CANCELLED, null);
+			}
+			queue.clear();
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		for (UploadJob job : cancelled) {
+			job.fireDone();
+		}
+	}
+
+	private boolean stop(UploadJob job, JobState state) throws FtpException {
+		try {
+			return requestStop(job, state);
+		} finally {
+			job.fireDone();
+		}
+	}
+
+	private boolean requestStop(UploadJob job, JobState state) throws FtpException {
+		lock.lock();
+		try {
+			switch (job.getState()) {
+			case QUEUED:
+				queue.remove(job);
+				job.changeState(state, null);
+				return true;
+			case PAUSED:
+				if (state == JobState.CANCELLED) {
+					job.changeState(state, null);
+				}
+				return state == JobState.CANCELLED;
+			case RUNNING:
+				job.setStopRequest(state);
+				job.getUploader().abort();
+				if (state == JobState.CANCELLED) {
+					job.changeState(state, null);
+				}
+				return true;
+			default:
+				return false;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the first queued job whose server is under its limit.
+	 *
+	 * @return the job or null once the scheduler is shut down
+	 */
+	private UploadJob next() throws InterruptedException {
+		lock.lock();
+		try {
+			while (!closed) {
+				for (Iterator<UploadJob> it = queue.iterator(); it.hasNext();) {
+					UploadJob job = it.next();
+					int active = running(job.getServer());
+					if (active < limit(job.getServer())) {
+						it.remove();
+						running.put(job.getServer(), active + 1);
+						job.setStopRequest(null);
+						job.changeState(JobState.RUNNING, null);
+						return job;
+					}
+				}
+				changed.await();
+			}
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void finished(UploadJob job, JobState state, Throwable error) {
+		lock.lock();
+		try {
+			running.put(job.getServer(), running(job.getServer()) - 1);
+			// A job cancelled while running stays cancelled, whatever the upload did
+			if (job.getState() != JobState.CANCELLED) {
+				if (state != JobState.COMPLETED && job.getStopRequest() != null) {
+					state = job.getStopRequest();
+					error = null;
+				}
+				job.changeState(state, error);
+			}
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		job.fireDone();
+	}
+
+	private void checkStopRequest(UploadJob job) {
+		lock.lock();
+		try {
+			if (job.getStopRequest() != null) {
+				throw new AbortedTransferException();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int running(String server) {
+		Integer active = running.get(server);
+		return active != null ? active : 0;
+	}
+
+	private int limit(String server) {
+		Integer limit = serverLimits.get(server);
+		return limit != null ? limit : defaultServerLimit;
+	}
+
+	private void execute(UploadJob job) {
+		JobState state = JobState.COMPLETED;
+		Throwable error = null;
+		FtpUploader uploader = job.getUploader();
+		try {
+			uploader.connect();
+			try {
+				// connect() forgets an abort sent while the job was starting
+				checkStopRequest(job);
+				uploader.upload(job.getFile(), new JobListener(job));
+			} finally {
+				try {
+					uploader.disconnect();
+				} catch (FtpException e) {
+					LOGGER.warn("Error disconnecting from {}", job.getServer(), e);
+				}
+			}
+		} catch (AbortedTransferException e) {
+			state = JobState.CANCELLED;
+		} catch (Throwable e) {
+			LOGGER.error("Upload of {} failed", job.getFile(), e);
+			state = JobState.FAILED;
+			error = e;
+		}
+		finished(job, state, error);
+	}
+
+	/**
+	 * Counts the bytes of the job and forwards the file events to its
+	 * listener, when it takes them.
+	 */
+	private static class JobListener implements FtpUploaderEventListener {
+
+		private final UploadJob job;
+
+		private final FtpUploaderEventListener events;
+
+		public JobListener(UploadJob job) {
+			this.job = job;
+			this.events = job.getEventListener();
+		}
+
+		@Override
+		public void bytesTransferred(long bytesTransferred) {
+			job.bytesTransferred(bytesTransferred);
+		}
+
+		@Override
+		public void fileStarted(File file) {
+			if (events != null) {
+				events.fileStarted(file);
+			}
+		}
+
+		@Override
+		public void fileResumed(File file, long offset) {
+			if (events != null) {
+				events.fileResumed(file, offset);
+			}
+		}
+
+		@Override
+		public void fileSkipped(File file) {
+			if (events != null) {
+				events.fileSkipped(file);
+			}
+		}
+
+		@Override
+		public void fileRetried(File file, int retry, Throwable cause) {
+			if (events != null) {
+				events.fileRetried(file, retry, cause);
+			}
+		}
+
+		@Override
+		public void fileFinished(File file) {
+			if (events != null) {
+				events.fileFinished(file);
+			}
+		}
+	}
+
+	private class Worker implements Runnable {
+
+		@Override
+		public void run() {
+			try {
+				UploadJob job;
+				while ((job = next()) != null) {
+					execute(job);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
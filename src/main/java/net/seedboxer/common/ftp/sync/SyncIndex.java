@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * SyncIndex.java
+ *
+ * Copyright (c) 2012 Team SeedBoxer.
+ *
+ * This file is part of SeedBoxer FTPCommon.
+ *
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.sync;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import net.seedboxer.common.ftp.scan.LocalTreeScanner.Entry;
+import net.seedboxer.common.ftp.scan.LocalTreeScanner.Kind;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fingerprint of every local directory as it was in the last completed
+ * sync, so directories whose entries did not change are neither listed
+ * nor compared again in the server.
+ * <p>
+ * The fingerprint covers the names, sizes and modification times of the
+ * files directly inside the directory and the names of its subdirectories,
+ * which have their own. Directories are keyed by the user, server and
+ * remote path they were synced to, so an index shared by uploads to
+ * several servers (or remote paths) never takes one for another. Changes
+ * made in the server by others are not seen for directories skipped this
+ * way.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class SyncIndex {
+
+	private final static Logger LOGGER = LoggerFactory.getLogger(SyncIndex.class);
+
+	private final static String ENCODING = "UTF-8";
+
+	private final File file;
+
+	private final Map<String, Long> previous = new HashMap<String, Long>();
+
+	private final Map<String, Long> current = new HashMap<String, Long>();
+
+	public SyncIndex(File file) throws IOException {
+		this.file = file;
+		if (file.exists()) {
+			load();
+		}
+	}
+
+	/**
+	 * Fingerprint of the entries directly inside a directory, as read by
+	 * the scanner, so the directory is not listed again.
+	 */
+	public static long fingerprint(List<Entry> children) {
+		long fingerprint = 0;
+		for (Entry child : children) {
+			long hash = child.getFile().getName().hashCode();
+			if (child.getKind() == Kind.DIRECTORY) {
+				hash = mix(hash ^ 0x5bd1e995L);
+			} else {
+				hash = mix(mix(hash ^ child.getLength()) ^ child.getLastModified());
+			}
+			// Order independent, listFiles() has no defined order
+			fingerprint += hash;
+		}
+		return mix(fingerprint);
+	}
+
+	/**
+	 * True if the directory had the same fingerprint in the last sync to the
+	 * remote path. The directory is kept in the index.
+	 */
+	public synchronized boolean isUnchanged(String server, String username, String path, long fingerprint) {
+		String key = key(server, username, path);
+		Long last = previous.get(key);
+		if (last != null && last.longValue() == fingerprint) {
+			current.put(key, last);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Records the fingerprint of a directory synced now to the remote path.
+	 */
+	public synchronized void record(String server, String username, String path, long fingerprint) {
+		current.put(key(server, username, path), fingerprint);
+	}
+
+	/**
+	 * Saves the directories seen in this sync, replacing every previous
+	 * one under the given remote root. Called when the sync completes.
+	 */
+	public synchronized void save(String server, String username, String root) throws IOException {
+		root = key(server, username, root);
+		for (Iterator<String> it = previous.keySet().iterator(); it.hasNext();) {
+			String path = it.next();
+			if (path.equals(root) || path.startsWith(root + "/")) {
+				it.remove();
+			}
+		}
+		previous.putAll(current);
+		current.clear();
+
+		StringBuilder records = new StringBuilder();
+		for (Map.Entry<String, Long> entry : previous.entrySet()) {
+			records.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+		}
+		File temporary = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temporary);
+		try {
+			out.write(records.toString().getBytes(ENCODING));
+			out.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!temporary.renameTo(file) && !(file.delete() && temporary.renameTo(file))) {
+			throw new IOException("Could not replace " + file);
+		}
+	}
+
+	private void load() throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int separator = line.indexOf(' ');
+				if (separator > 0) {
+					try {
+						previous.put(line.substring(separator + 1), Long.parseLong(line.substring(0, separator)));
+					} catch (NumberFormatException e) {
+						// Torn record
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		LOGGER.debug("Sync index {} loaded, {} directories known", file, previous.size());
+	}
+
+	private static String key(String server, String username, String path) {
+		return username + "@" + server + "/" + path;
+	}
+
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb93fe53a87cdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * EmbeddedFtpServer.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.DefaultFtpReply;
+import org.apache.ftpserver.ftplet.DefaultFtplet;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpRequest;
+import org.apache.ftpserver.ftplet.FtpSession;
+import org.apache.ftpserver.ftplet.FtpletResult;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+import org.apache.ftpserver.usermanager.impl.WritePermission;
+
+/**
+ * In process Apache FtpServer on loopback serving a local directory, which
+ * records the commands it receives.
+ *
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class EmbeddedFtpServer {
+
+	public final static String USERNAME = "test";
+
+	public final static String PASSWORD = "test";
+
+	private final File home;
+
+	private final List<String> commands = new CopyOnWriteArrayList<String>();
+
+	private final Map<String, Integer> refused = new ConcurrentHashMap<String, Integer>();
+
+	private FtpServer server;
+
+	private int port;
+
+	/**
+	 * @param home directory the user logs in
+	 */
+	public EmbeddedFtpServer(File home) {
+		this.home = home;
+	}
+
+	public void start() throws IOException, FtpException {
+		port = freePort();
+
+		FtpServerFactory serverFactory = new FtpServerFactory();
+		ListenerFactory listenerFactory = new ListenerFactory();
+		listenerFactory.setServerAddress("127.0.0.1");
+		listenerFactory.setPort(port);
+		serverFactory.addListener("default", listenerFactory.createListener());
+		serverFactory.getFtplets().put("commands", new CommandRecorder());
+
+		BaseUser user = new BaseUser();
+		user.setName(USERNAME);
+		user.setPassword(PASSWORD);
+		user.setHomeDirectory(home.getAbsolutePath());
+		List<Authority> authorities = new ArrayList<Authority>();
+		authorities.add(new WritePermission());
+		authorities.add(new ConcurrentLoginPermission(64, 64));
+		user.setAuthorities(authorities);
+		serverFactory.getUserManager().save(user);
+
+		server = serverFactory.createServer();
+		server.start();
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop();
+		}
+	}
+
+	public String getAddress() {
+		return "127.0.0.1:" + port;
+	}
+
+	/**
+	 * @return commands received since the start, in order
+	 */
+	public List<String> getCommands() {
+		return commands;
+	}
+
+	/**
+	 * Answers the command with the given reply instead of running it.
+	 */
+	public void refuse(String command, int replyCode) {
+		refused.put(command, replyCode);
+	}
+
+	private static int freePort() throws IOException {
+		ServerSocket socket = new ServerSocket(0);
+		try {
+			return socket.getLocalPort();
+		} finally {
+			socket.close();
+		}
+	}
+
+	private class CommandRecorder extends DefaultFtplet {
+
+		@Override
+		public FtpletResult beforeCommand(FtpSession session, FtpRequest request) throws FtpException, IOException {
+			commands.add(request.getCommand());
+			Integer replyCode = refused.get(request.getCommand());
+			if (replyCode != null) {
+				session.write(new DefaultFtpReply(replyCode, "Refused"));
+				return FtpletResult.SKIP;
+			}
+			return super.beforeCommand(session, request);
+		}
+	}
+
+}
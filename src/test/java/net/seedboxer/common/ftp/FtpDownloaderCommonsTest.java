@@ -0,0 +1,175 @@
+/*******************************************************************************
+ * FtpDownloaderCommonsTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import static net.seedboxer.common.ftp.FtpUploaderCommonsTest.assertSameTree;
+import static net.seedboxer.common.ftp.FtpUploaderCommonsTest.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.seedboxer.common.ftp.pool.FtpConnectionPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class FtpDownloaderCommonsTest {
+
+	private static final int BIG_FILE = 64 * 1024;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File local;
+
+	private File remote;
+
+	private EmbeddedFtpServer server;
+
+	private FtpConnectionPool pool;
+
+	@Before
+	public void start() throws Exception {
+		local = folder.newFolder("local");
+		remote = folder.newFolder("remote");
+		server = new EmbeddedFtpServer(remote);
+		server.start();
+	}
+
+	@After
+	public void stop() {
+		if (pool != null) {
+			pool.close();
+		}
+		server.stop();
+	}
+
+	@Test
+	public void downloadsTheTree() throws Exception {
+		File tree = createTree("data");
+		download(newDownloader(), "/data", new File(local, "data"));
+		assertSameTree(tree, new File(local, "data"));
+	}
+
+	@Test
+	public void downloadsTheTreeInParallel() throws Exception {
+		File tree = createTree("data");
+		FtpDownloaderCommons downloader = newDownloader();
+		downloader.setParallelConnections(3);
+		download(downloader, "/data", new File(local, "data"));
+		assertSameTree(tree, new File(local, "data"));
+	}
+
+	@Test
+	public void downloadsBigFilesInSegments() throws Exception {
+		File tree = createTree("data");
+		FtpDownloaderCommons downloader = newDownloader();
+		downloader.setParallelConnections(3);
+		downloader.setFileSegments(3, 4096);
+		download(downloader, "/data", new File(local, "data"));
+		assertSameTree(tree, new File(local, "data"));
+	}
+
+	@Test
+	public void resumesASegmentedFile() throws Exception {
+		File source = new File(remote, "big");
+		write(source, BIG_FILE, 7);
+		File destination = new File(local, "big");
+		write(destination, BIG_FILE, 7);
+		RandomAccessFile partial = new RandomAccessFile(destination, "rw");
+		try {
+			partial.setLength(BIG_FILE / 3);
+		} finally {
+			partial.close();
+		}
+
+		FtpDownloaderCommons downloader = newDownloader();
+		downloader.setFileSegments(3, 4096);
+		AtomicLong transferred = download(downloader, "/big", destination);
+		assertSameTree(source, destination);
+		assertEquals(BIG_FILE, transferred.get());
+		assertFalse(new File(local, "big.part").exists());
+	}
+
+	@Test
+	public void staysWithinThePoolCapacity() throws Exception {
+		File tree = createTree("data");
+		pool = new FtpConnectionPool(2, 60000, 60000, 2000);
+		FtpDownloaderCommons downloader = newDownloader();
+		downloader.setConnectionPool(pool);
+		downloader.setParallelConnections(3);
+		downloader.setFileSegments(3, 4096);
+		download(downloader, "/data", new File(local, "data"));
+		assertSameTree(tree, new File(local, "data"));
+	}
+
+	private FtpDownloaderCommons newDownloader() throws Exception {
+		FtpDownloaderCommons downloader = new FtpDownloaderCommons();
+		downloader.configure(server.getAddress(), EmbeddedFtpServer.USERNAME, EmbeddedFtpServer.PASSWORD,
+				null, false);
+		return downloader;
+	}
+
+	private AtomicLong download(FtpDownloaderCommons downloader, String remoteFile, File destination)
+			throws Exception {
+		final AtomicLong transferred = new AtomicLong();
+		downloader.connect();
+		try {
+			downloader.download(remoteFile, destination, new FtpUploaderListener() {
+				@Override
+				public void bytesTransferred(long bytesTransferred) {
+					transferred.addAndGet(bytesTransferred);
+				}
+			});
+		} finally {
+			downloader.disconnect();
+		}
+		return transferred;
+	}
+
+	/**
+	 * Tree in the server with a few big files, small ones and an empty
+	 * directory.
+	 */
+	private File createTree(String name) throws IOException {
+		File tree = new File(remote, name);
+		for (int i = 0; i < 12; i++) {
+			write(new File(tree, "dir" + (i % 3) + "/sub" + (i % 2) + "/file" + i), 1000 * i + 7, i);
+		}
+		for (int i = 0; i < 3; i++) {
+			write(new File(tree, "big" + i), BIG_FILE + i, 100 + i);
+		}
+		new File(tree, "empty").mkdirs();
+		return tree;
+	}
+
+}
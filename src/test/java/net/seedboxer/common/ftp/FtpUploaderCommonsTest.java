@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * FtpUploaderCommonsTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Random;
+
+import net.seedboxer.common.ftp.exception.FtpException;
+import net.seedboxer.common.ftp.retry.RetryPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class FtpUploaderCommonsTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File local;
+
+	private File remote;
+
+	private EmbeddedFtpServer server;
+
+	@Before
+	public void start() throws Exception {
+		local = folder.newFolder("local");
+		remote = folder.newFolder("remote");
+		server = new EmbeddedFtpServer(remote);
+		server.start();
+	}
+
+	@After
+	public void stop() {
+		server.stop();
+	}
+
+	@Test
+	public void uploadsTheTreeByPath() throws Exception {
+		File tree = createTree("data");
+		upload(newUploader(null), tree);
+		assertSameTree(tree, new File(remote, "data"));
+		assertFalse(server.getCommands().contains("CWD"));
+		assertFalse(server.getCommands().contains("CDUP"));
+	}
+
+	@Test
+	public void uploadsTheTreeInParallel() throws Exception {
+		File tree = createTree("data");
+		FtpUploaderCommons uploader = newUploader(null);
+		uploader.setParallelConnections(3);
+		upload(uploader, tree);
+		assertSameTree(tree, new File(remote, "data"));
+	}
+
+	@Test
+	public void uploadsUnderTheRemotePath() throws Exception {
+		new File(remote, "incoming").mkdir();
+		File tree = createTree("data");
+		upload(newUploader("/incoming"), tree);
+		assertSameTree(tree, new File(remote, "incoming/data"));
+	}
+
+	@Test
+	public void doesNotRetryARefusedFile() throws Exception {
+		File file = new File(local, "file");
+		write(file, 100, 1);
+		server.refuse("STOR", 550);
+		assertUploadFails(file);
+		assertEquals(1, Collections.frequency(server.getCommands(), "STOR"));
+	}
+
+	@Test
+	public void retriesWhenTheStorageIsExceeded() throws Exception {
+		File file = new File(local, "file");
+		write(file, 100, 1);
+		server.refuse("STOR", 552);
+		assertUploadFails(file);
+		assertEquals(3, Collections.frequency(server.getCommands(), "STOR"));
+	}
+
+	@Test
+	public void pathsUnderTheFilesystemRoot() {
+		File root = File.listRoots()[0];
+		File file = new File(new File(root, "data"), "sub");
+		assertEquals("data/sub", FtpUploaderCommons.relativePath(root.getPath(), file));
+		assertEquals("data", FtpUploaderCommons.relativePath(root.getPath(), file.getParentFile()));
+	}
+
+	@Test
+	public void pathsUnderADirectory() {
+		File root = folder.getRoot();
+		assertEquals("data/sub", FtpUploaderCommons.relativePath(root.getPath(), new File(root, "data/sub")));
+		assertEquals("data", FtpUploaderCommons.relativePath(root.getPath(), new File(root, "data")));
+	}
+
+	private FtpUploaderCommons newUploader(String remotePath) throws Exception {
+		FtpUploaderCommons uploader = new FtpUploaderCommons();
+		uploader.configure(server.getAddress(), EmbeddedFtpServer.USERNAME, EmbeddedFtpServer.PASSWORD,
+				remotePath, false);
+		return uploader;
+	}
+
+	private void upload(FtpUploaderCommons uploader, File file) throws Exception {
+		uploader.connect();
+		try {
+			uploader.upload(file, null);
+		} finally {
+			uploader.disconnect();
+		}
+	}
+
+	private void assertUploadFails(File file) throws Exception {
+		FtpUploaderCommons uploader = newUploader(null);
+		uploader.setRetryPolicy(new RetryPolicy(2, 1, 1));
+		try {
+			upload(uploader, file);
+			fail("Upload of " + file + " did not fail");
+		} catch (FtpException e) {
+			// Expected
+		}
+	}
+
+	private File createTree(String name) throws IOException {
+		File tree = new File(local, name);
+		for (int i = 0; i < 12; i++) {
+			write(new File(tree, "dir" + (i % 3) + "/sub" + (i % 2) + "/file" + i), 1000 * i + 7, i);
+		}
+		write(new File(tree, "top"), 10, 99);
+		new File(tree, "empty").mkdirs();
+		return tree;
+	}
+
+	static void write(File file, int length, long seed) throws IOException {
+		file.getParentFile().mkdirs();
+		byte[] data = new byte[length];
+		new Random(seed).nextBytes(data);
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(data);
+		} finally {
+			out.close();
+		}
+	}
+
+	static void assertSameTree(File expected, File actual) throws IOException {
+		if (expected.isDirectory()) {
+			assertTrue(actual + " is not a directory", actual.isDirectory());
+			String[] names = expected.list();
+			assertEquals(names.length, actual.list().length);
+			for (String name : names) {
+				assertSameTree(new File(expected, name), new File(actual, name));
+			}
+		} else {
+			assertArrayEquals(actual.getPath(), read(expected), read(actual));
+		}
+	}
+
+	private static byte[] read(File file) throws IOException {
+		byte[] data = new byte[(int) file.length()];
+		InputStream in = new FileInputStream(file);
+		try {
+			int read = 0;
+			while (read < data.length) {
+				read += in.read(data, read, data.length - read);
+			}
+		} finally {
+			in.close();
+		}
+		return data;
+	}
+
+}
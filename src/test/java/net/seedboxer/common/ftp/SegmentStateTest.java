@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * SegmentStateTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class SegmentStateTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void splitsThePendingRange() throws IOException {
+		SegmentState state = SegmentState.open(folder.newFile("state"), 1000, 100, 3);
+		assertEquals(3, state.getSegments());
+		assertEquals(100, state.getStart(0));
+		for (int i = 1; i < 3; i++) {
+			assertEquals(state.getEnd(i - 1), state.getStart(i));
+		}
+		assertEquals(1000, state.getEnd(2));
+		for (int i = 0; i < 3; i++) {
+			assertEquals(state.getStart(i), state.getPosition(i));
+		}
+		state.close();
+	}
+
+	@Test
+	public void resumesTheRecordedPositions() throws IOException {
+		File file = folder.newFile("state");
+		SegmentState state = SegmentState.open(file, 1000, 0, 2);
+		state.update(0, 200);
+		state.update(1, 700);
+		state.close();
+
+		state = SegmentState.open(file, 1000, 0, 4);
+		assertEquals(2, state.getSegments());
+		assertEquals(0, state.getStart(0));
+		assertEquals(500, state.getEnd(0));
+		assertEquals(200, state.getPosition(0));
+		assertEquals(500, state.getStart(1));
+		assertEquals(1000, state.getEnd(1));
+		assertEquals(700, state.getPosition(1));
+		state.close();
+	}
+
+	@Test
+	public void restartsWhenTheSizeChanged() throws IOException {
+		File file = folder.newFile("state");
+		SegmentState state = SegmentState.open(file, 1000, 0, 2);
+		state.update(0, 200);
+		state.close();
+
+		state = SegmentState.open(file, 2000, 0, 4);
+		assertEquals(4, state.getSegments());
+		assertEquals(0, state.getPosition(0));
+		assertEquals(2000, state.getEnd(3));
+		state.close();
+	}
+
+	@Test
+	public void restartsWhenTheStateIsTruncated() throws IOException {
+		File file = folder.newFile("state");
+		SegmentState state = SegmentState.open(file, 1000, 0, 2);
+		state.update(1, 700);
+		state.close();
+		RandomAccessFile raw = new RandomAccessFile(file, "rw");
+		try {
+			raw.setLength(raw.length() - 4);
+		} finally {
+			raw.close();
+		}
+
+		state = SegmentState.open(file, 1000, 0, 2);
+		assertEquals(500, state.getPosition(1));
+		state.close();
+	}
+
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * WorkStealingQueueTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class WorkStealingQueueTest {
+
+	@Test
+	public void workersTakeContiguousBlocks() {
+		WorkStealingQueue<Integer> queue = new WorkStealingQueue<Integer>(Arrays.asList(0, 1, 2, 3, 4, 5), 2);
+		assertEquals(Integer.valueOf(0), queue.poll(0));
+		assertEquals(Integer.valueOf(3), queue.poll(1));
+		assertEquals(Integer.valueOf(1), queue.poll(0));
+		assertEquals(Integer.valueOf(4), queue.poll(1));
+	}
+
+	@Test
+	public void idleWorkerStealsFromTheTail() {
+		WorkStealingQueue<Integer> queue = new WorkStealingQueue<Integer>(Arrays.asList(0, 1, 2, 3), 2);
+		assertEquals(Integer.valueOf(2), queue.poll(1));
+		assertEquals(Integer.valueOf(3), queue.poll(1));
+		assertEquals(Integer.valueOf(1), queue.poll(1));
+		assertEquals(Integer.valueOf(0), queue.poll(0));
+		assertNull(queue.poll(0));
+		assertNull(queue.poll(1));
+	}
+
+	@Test
+	public void everyItemIsTakenOnce() {
+		List<Integer> items = new ArrayList<Integer>();
+		for (int i = 0; i < 1000; i++) {
+			items.add(i);
+		}
+		WorkStealingQueue<Integer> queue = new WorkStealingQueue<Integer>(items, 7);
+		Set<Integer> taken = new HashSet<Integer>();
+		Integer item;
+		while ((item = queue.poll(taken.size() % 3)) != null) {
+			assertTrue(taken.add(item));
+		}
+		assertEquals(1000, taken.size());
+	}
+
+	@Test
+	public void moreWorkersThanItems() {
+		WorkStealingQueue<Integer> queue = new WorkStealingQueue<Integer>(Arrays.asList(0, 1), 4);
+		assertEquals(Integer.valueOf(1), queue.poll(1));
+		assertEquals(Integer.valueOf(0), queue.poll(3));
+		assertNull(queue.poll(0));
+		assertNull(queue.poll(2));
+	}
+
+	@Test
+	public void noItems() {
+		WorkStealingQueue<Integer> queue = new WorkStealingQueue<Integer>(Collections.<Integer> emptyList(), 3);
+		assertNull(queue.poll(0));
+		assertNull(queue.poll(2));
+	}
+
+}
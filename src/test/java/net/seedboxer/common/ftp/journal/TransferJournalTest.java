@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * TransferJournalTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import net.seedboxer.common.ftp.journal.TransferJournal.PendingFile;
+import net.seedboxer.common.ftp.listing.RemoteListing;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class TransferJournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void replaysFinishedAndPendingFiles() throws IOException {
+		File file = folder.newFile("journal");
+		TransferJournal journal = new TransferJournal(file, false);
+		RemoteListing remote = new RemoteListing();
+		remote.put("old", 5);
+		journal.directory("", remote);
+		journal.directory("dir", new RemoteListing());
+		journal.started("dir/a", 0, false);
+		journal.progress("dir/a", 100);
+		journal.finished("dir/a", 200);
+		journal.started("dir/b", 0, false);
+		journal.progress("dir/b", 50);
+		journal.started("dir/c", 30, true);
+		journal.close();
+
+		journal = new TransferJournal(file, false);
+		assertTrue(journal.isKnownDirectory(""));
+		assertTrue(journal.isKnownDirectory("dir"));
+		assertFalse(journal.isKnownDirectory("other"));
+		assertEquals(5, journal.listing("").size("old"));
+		RemoteListing listing = journal.listing("dir");
+		assertEquals(1, listing.count());
+		assertEquals(200, listing.size("a"));
+		List<PendingFile> pending = journal.pending("dir");
+		assertEquals(2, pending.size());
+		for (PendingFile entry : pending) {
+			if (entry.getName().equals("b")) {
+				assertEquals(50, entry.getOffset());
+				assertFalse(entry.isSegmented());
+			} else {
+				assertEquals("c", entry.getName());
+				assertEquals(30, entry.getOffset());
+				assertTrue(entry.isSegmented());
+			}
+		}
+		journal.close();
+	}
+
+	@Test
+	public void ignoresFilesOfUnknownDirectories() throws IOException {
+		File file = folder.newFile("journal");
+		TransferJournal journal = new TransferJournal(file, false);
+		journal.finished("dir/a", 10);
+		journal.close();
+
+		journal = new TransferJournal(file, false);
+		assertFalse(journal.isKnownDirectory("dir"));
+		assertEquals(0, journal.listing("dir").count());
+		assertTrue(journal.pending("dir").isEmpty());
+		journal.close();
+	}
+
+	@Test
+	public void dropsTornLastRecord() throws IOException {
+		File file = folder.newFile("journal");
+		TransferJournal journal = new TransferJournal(file, false);
+		journal.directory("dir", new RemoteListing());
+		journal.progress("dir/file", 100);
+		journal.close();
+		appendRaw(file, "F 300 dir/fi");
+
+		journal = new TransferJournal(file, false);
+		assertFalse(journal.listing("dir").contains("fi"));
+		assertEquals(1, journal.pending("dir").size());
+		assertEquals(100, journal.pending("dir").get(0).getOffset());
+		journal.finished("dir/file", 300);
+		journal.close();
+
+		journal = new TransferJournal(file, false);
+		assertEquals(300, journal.listing("dir").size("file"));
+		assertTrue(journal.pending("dir").isEmpty());
+		journal.close();
+	}
+
+	@Test
+	public void ignoresMalformedRecords() throws IOException {
+		File file = folder.newFile("journal");
+		TransferJournal journal = new TransferJournal(file, false);
+		journal.directory("dir", new RemoteListing());
+		journal.close();
+		appendRaw(file, "P 12\nF 1x3 dir/a\n\nX\nF 7 dir/b\n");
+
+		journal = new TransferJournal(file, false);
+		RemoteListing listing = journal.listing("dir");
+		assertEquals(1, listing.count());
+		assertEquals(7, listing.size("b"));
+		assertTrue(journal.pending("dir").isEmpty());
+		journal.close();
+	}
+
+	@Test
+	public void clearForgetsEverything() throws IOException {
+		File file = folder.newFile("journal");
+		TransferJournal journal = new TransferJournal(file, false);
+		journal.directory("dir", new RemoteListing());
+		journal.finished("dir/a", 10);
+		journal.clear();
+		assertFalse(journal.isKnownDirectory("dir"));
+		journal.close();
+
+		assertEquals(0, file.length());
+		journal = new TransferJournal(file, false);
+		assertFalse(journal.isKnownDirectory("dir"));
+		journal.close();
+	}
+
+	private void appendRaw(File file, String data) throws IOException {
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(data.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * TokenBucketTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.limit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class TokenBucketTest {
+
+	private final static long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void unlimitedNeverWaits() {
+		TokenBucket bucket = new TokenBucket(0);
+		assertEquals(0, bucket.take(Long.MAX_VALUE / 2));
+		assertEquals(0, bucket.take(Long.MAX_VALUE / 2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeRate() {
+		new TokenBucket(-1);
+	}
+
+	@Test
+	public void debtIsPaidWithTime() {
+		TokenBucket bucket = new TokenBucket(1000);
+		assertBetween(SECOND / 2, bucket.take(500));
+		assertBetween(SECOND, bucket.take(500));
+	}
+
+	@Test
+	public void refillsWithElapsedTime() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(1000);
+		Thread.sleep(600);
+		assertEquals(0, bucket.take(500));
+	}
+
+	@Test
+	public void refillIsCappedAtOneSecond() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(1000);
+		Thread.sleep(1500);
+		assertEquals(0, bucket.take(1000));
+		assertBetween(SECOND / 2, bucket.take(500));
+	}
+
+	@Test
+	public void setRateForgivesTheDebt() {
+		TokenBucket bucket = new TokenBucket(1000);
+		assertTrue(bucket.take(5000) > 0);
+		bucket.setRate(2000);
+		assertEquals(2000, bucket.getRate());
+		assertEquals(0, bucket.take(0));
+		assertBetween(SECOND / 2, bucket.take(1000));
+	}
+
+	/**
+	 * The refill between the calls may only shorten the expected wait.
+	 */
+	private void assertBetween(long expected, long wait) {
+		assertTrue("Waits " + wait, wait <= expected);
+		assertTrue("Waits " + wait, wait > expected - SECOND / 10);
+	}
+
+}
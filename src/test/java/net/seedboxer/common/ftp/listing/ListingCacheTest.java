@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * ListingCacheTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.listing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class ListingCacheTest {
+
+	private final static long TTL = 60000;
+
+	@Test
+	public void countsHitsAndMisses() {
+		ListingCache cache = new ListingCache(100, TTL);
+		assertNull(cache.get("host", "user", "dir"));
+		cache.put("host", "user", "dir", listing(2));
+		assertNotNull(cache.get("host", "user", "dir"));
+		assertNull(cache.get("host", "other", "dir"));
+		assertNull(cache.get("other", "user", "dir"));
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void listingsAreCopied() {
+		ListingCache cache = new ListingCache(100, TTL);
+		RemoteListing listing = listing(2);
+		cache.put("host", "user", "dir", listing);
+		listing.put("added", 1);
+		cache.get("host", "user", "dir").put("added", 1);
+		assertFalse(cache.get("host", "user", "dir").contains("added"));
+		assertEquals(2, cache.getEntries());
+	}
+
+	@Test
+	public void accountsEveryChange() {
+		ListingCache cache = new ListingCache(100, TTL);
+		cache.put("host", "user", "a", listing(3));
+		cache.put("host", "user", "b", listing(4));
+		assertEquals(7, cache.getEntries());
+		cache.put("host", "user", "a", listing(1));
+		assertEquals(5, cache.getEntries());
+		cache.stored("host", "user", "a", "new", 10, RemoteListing.UNKNOWN_TIME);
+		assertEquals(6, cache.getEntries());
+		cache.stored("host", "user", "a", "new", 20, 1000L);
+		assertEquals(6, cache.getEntries());
+		assertEquals(20, cache.get("host", "user", "a").size("new"));
+		cache.stored("host", "user", "c", "new", 10, RemoteListing.UNKNOWN_TIME);
+		assertEquals(6, cache.getEntries());
+		assertNull(cache.get("host", "user", "c"));
+		cache.invalidate("host", "user", "b");
+		assertEquals(2, cache.getEntries());
+		cache.clear();
+		assertEquals(0, cache.getEntries());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		ListingCache cache = new ListingCache(10, TTL);
+		cache.put("host", "user", "a", listing(4));
+		cache.put("host", "user", "b", listing(4));
+		cache.get("host", "user", "a");
+		cache.put("host", "user", "c", listing(4));
+		assertEquals(8, cache.getEntries());
+		assertNull(cache.get("host", "user", "b"));
+		assertNotNull(cache.get("host", "user", "a"));
+		assertNotNull(cache.get("host", "user", "c"));
+	}
+
+	@Test
+	public void evictsWhenStoredGrowsTheCache() {
+		ListingCache cache = new ListingCache(4, TTL);
+		cache.put("host", "user", "a", listing(2));
+		cache.put("host", "user", "b", listing(2));
+		cache.stored("host", "user", "b", "new", 1, RemoteListing.UNKNOWN_TIME);
+		assertEquals(3, cache.getEntries());
+		assertNull(cache.get("host", "user", "a"));
+	}
+
+	@Test
+	public void doesNotKeepListingsLargerThanTheCache() {
+		ListingCache cache = new ListingCache(4, TTL);
+		cache.put("host", "user", "a", listing(2));
+		cache.put("host", "user", "big", listing(5));
+		assertEquals(0, cache.getEntries());
+		assertNull(cache.get("host", "user", "big"));
+		assertNull(cache.get("host", "user", "a"));
+	}
+
+	@Test
+	public void expiresAfterTheTtl() throws InterruptedException {
+		ListingCache cache = new ListingCache(100, 50);
+		cache.put("host", "user", "dir", listing(2));
+		Thread.sleep(100);
+		assertNull(cache.get("host", "user", "dir"));
+		assertEquals(0, cache.getEntries());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void invalidSize() {
+		new ListingCache(0, TTL);
+	}
+
+	private RemoteListing listing(int count) {
+		RemoteListing listing = new RemoteListing();
+		for (int i = 0; i < count; i++) {
+			listing.put("file" + i, i);
+		}
+		return listing;
+	}
+
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * RemoteListerTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.listing;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.parser.MLSxEntryParser;
+import org.junit.Test;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class RemoteListerTest {
+
+	@Test
+	public void dotEntries() {
+		assertTrue(RemoteLister.isSelfOrParent(named(".")));
+		assertTrue(RemoteLister.isSelfOrParent(named("..")));
+		assertFalse(RemoteLister.isSelfOrParent(named("...")));
+		assertFalse(RemoteLister.isSelfOrParent(named("file")));
+	}
+
+	@Test
+	public void mlsdTypeFacts() {
+		assertTrue(RemoteLister.isSelfOrParent(MLSxEntryParser.parseEntry("type=cdir;modify=20200101000000; /pub/dir")));
+		assertTrue(RemoteLister.isSelfOrParent(MLSxEntryParser.parseEntry("Type=PDir;perm=el; pub")));
+		assertFalse(RemoteLister.isSelfOrParent(MLSxEntryParser.parseEntry("type=dir; sub")));
+		assertFalse(RemoteLister.isSelfOrParent(MLSxEntryParser.parseEntry("type=file;size=3; file.txt")));
+	}
+
+	@Test
+	public void typeFactIsNotReadFromTheName() {
+		assertFalse(RemoteLister.isSelfOrParent(MLSxEntryParser.parseEntry("type=file;size=3; type=cdir")));
+	}
+
+	private FTPFile named(String name) {
+		FTPFile file = new FTPFile();
+		file.setName(name);
+		return file;
+	}
+
+}
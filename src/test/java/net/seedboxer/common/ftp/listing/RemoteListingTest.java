@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * RemoteListingTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.listing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class RemoteListingTest {
+
+	@Test
+	public void absentEntries() {
+		RemoteListing listing = new RemoteListing();
+		assertFalse(listing.contains("a"));
+		assertEquals(RemoteListing.ABSENT, listing.size("a"));
+		assertEquals(RemoteListing.UNKNOWN_TIME, listing.modified("a"));
+		assertEquals(0, listing.count());
+	}
+
+	@Test
+	public void putReplacesTheEntry() {
+		RemoteListing listing = new RemoteListing();
+		listing.put("a", 10);
+		listing.put("a", 20, 1000L);
+		assertEquals(1, listing.count());
+		assertEquals(20, listing.size("a"));
+		assertEquals(1000L, listing.modified("a"));
+	}
+
+	@Test
+	public void collidingNames() {
+		// "Aa" and "BB" have the same hash code
+		RemoteListing listing = new RemoteListing(1);
+		listing.put("Aa", 1);
+		listing.put("BB", 2);
+		assertEquals(2, listing.count());
+		assertEquals(1, listing.size("Aa"));
+		assertEquals(2, listing.size("BB"));
+		assertFalse(listing.contains("C#"));
+	}
+
+	@Test
+	public void growsKeepingSizesAndTimes() {
+		RemoteListing listing = new RemoteListing(1);
+		for (int i = 0; i < 10000; i++) {
+			listing.put("file" + i, i, i % 2 == 0 ? i * 1000L : RemoteListing.UNKNOWN_TIME);
+		}
+		assertEquals(10000, listing.count());
+		for (int i = 0; i < 10000; i++) {
+			assertEquals(i, listing.size("file" + i));
+			assertEquals(i % 2 == 0 ? i * 1000L : RemoteListing.UNKNOWN_TIME, listing.modified("file" + i));
+		}
+	}
+
+	@Test
+	public void iteratesEveryName() {
+		RemoteListing listing = new RemoteListing();
+		Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < 100; i++) {
+			listing.put("n" + i, i);
+			expected.add("n" + i);
+		}
+		Set<String> names = new HashSet<String>();
+		for (String name : listing) {
+			assertTrue(names.add(name));
+		}
+		assertEquals(expected, names);
+	}
+
+	@Test
+	public void copyIsIndependent() {
+		RemoteListing listing = new RemoteListing();
+		listing.put("a", 1, 5L);
+		RemoteListing copy = listing.copy();
+		copy.put("a", 2);
+		copy.put("b", 3);
+		assertEquals(1, listing.size("a"));
+		assertFalse(listing.contains("b"));
+		assertEquals(2, copy.size("a"));
+		assertEquals(2, copy.count());
+	}
+
+	@Test
+	public void clearRemovesEverything() {
+		RemoteListing listing = new RemoteListing();
+		listing.put("a", 1);
+		listing.clear();
+		assertEquals(0, listing.count());
+		assertFalse(listing.contains("a"));
+		assertFalse(listing.iterator().hasNext());
+	}
+
+}
@@ -0,0 +1,157 @@
+/*******************************************************************************
+ * FtpConnectionPoolTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.pool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import net.seedboxer.common.ftp.exception.FtpConnectionException;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class FtpConnectionPoolTest {
+
+	private final static FtpSessionKey KEY = new FtpSessionKey("host", "user", false);
+
+	private final FtpConnectionPool pool = new FtpConnectionPool(2, 60000, 60000, 100);
+
+	private final FakeFactory factory = new FakeFactory();
+
+	@After
+	public void close() {
+		pool.close();
+	}
+
+	@Test
+	public void releasedSessionIsReused() throws Exception {
+		FTPClient client = pool.borrow(KEY, factory);
+		pool.release(KEY, client);
+		assertSame(client, pool.borrow(KEY, factory));
+		assertEquals(1, factory.created);
+		assertEquals("/home", ((FakeClient) client).directory);
+	}
+
+	@Test
+	public void invalidatedSessionIsClosed() throws Exception {
+		FTPClient client = pool.borrow(KEY, factory);
+		pool.invalidate(KEY, client);
+		assertFalse(client.isConnected());
+		assertNotSame(client, pool.borrow(KEY, factory));
+		assertEquals(2, factory.created);
+	}
+
+	@Test
+	public void brokenIdleSessionIsReplaced() throws Exception {
+		FakeClient client = (FakeClient) pool.borrow(KEY, factory);
+		pool.release(KEY, client);
+		client.healthy = false;
+		assertNotSame(client, pool.borrow(KEY, factory));
+		assertFalse(client.isConnected());
+		assertEquals(2, factory.created);
+	}
+
+	@Test
+	public void leasesAreCappedPerKey() throws Exception {
+		FTPClient first = pool.borrow(KEY, factory);
+		pool.borrow(KEY, factory);
+		try {
+			pool.borrow(KEY, factory);
+			fail("Borrowed more sessions than allowed");
+		} catch (FtpConnectionException e) {
+			// Expected
+		}
+		pool.borrow(new FtpSessionKey("other", "user", false), factory);
+		pool.release(KEY, first);
+		assertSame(first, pool.borrow(KEY, factory));
+	}
+
+	@Test
+	public void sessionReleasedAfterCloseIsClosed() throws Exception {
+		FTPClient client = pool.borrow(KEY, factory);
+		pool.close();
+		pool.release(KEY, client);
+		assertFalse(client.isConnected());
+	}
+
+	private static class FakeFactory implements FtpSessionFactory {
+
+		private int created;
+
+		@Override
+		public FTPClient create() {
+			created++;
+			return new FakeClient();
+		}
+	}
+
+	/**
+	 * Logged in session that never touches the network.
+	 */
+	private static class FakeClient extends FTPClient {
+
+		private volatile boolean connected = true;
+
+		private volatile boolean healthy = true;
+
+		private volatile String directory;
+
+		@Override
+		public boolean isConnected() {
+			return connected;
+		}
+
+		@Override
+		public String printWorkingDirectory() {
+			return "/home";
+		}
+
+		@Override
+		public boolean changeWorkingDirectory(String pathname) {
+			directory = pathname;
+			return healthy;
+		}
+
+		@Override
+		public boolean sendNoOp() {
+			return healthy;
+		}
+
+		@Override
+		public boolean logout() {
+			return true;
+		}
+
+		@Override
+		public void disconnect() {
+			connected = false;
+		}
+	}
+
+}
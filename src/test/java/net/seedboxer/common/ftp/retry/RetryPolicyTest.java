@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * RetryPolicyTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.retry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class RetryPolicyTest {
+
+	@Test
+	public void delayDoublesOnEveryRetry() {
+		RetryPolicy policy = new RetryPolicy(5, 1000, 60000);
+		assertEquals(5, policy.getMaxRetries());
+		for (int retry = 1; retry <= 5; retry++) {
+			assertJittered(1000L << (retry - 1), policy.getDelay(retry));
+		}
+	}
+
+	@Test
+	public void delayIsCappedAtTheMax() {
+		RetryPolicy policy = new RetryPolicy(100, 1000, 5000);
+		assertJittered(4000, policy.getDelay(3));
+		assertJittered(5000, policy.getDelay(4));
+		assertJittered(5000, policy.getDelay(100));
+	}
+
+	@Test
+	public void delayDoesNotOverflow() {
+		RetryPolicy policy = new RetryPolicy(100, 1, Long.MAX_VALUE);
+		assertJittered(1L << 62, policy.getDelay(63));
+		assertJittered(Long.MAX_VALUE, policy.getDelay(64));
+		assertJittered(Long.MAX_VALUE, policy.getDelay(100));
+	}
+
+	@Test
+	public void noDelay() {
+		RetryPolicy policy = new RetryPolicy(3, 0, 0);
+		assertEquals(0, policy.getDelay(1));
+		assertEquals(0, policy.getDelay(3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void negativeRetries() {
+		new RetryPolicy(-1, 0, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void maxBelowInitialDelay() {
+		new RetryPolicy(1, 1000, 500);
+	}
+
+	/**
+	 * The jitter takes up to a fifth of the delay.
+	 */
+	private void assertJittered(long delay, long actual) {
+		assertTrue("Delay " + actual, actual <= delay);
+		assertTrue("Delay " + actual, actual >= delay - delay / 5 - 1);
+	}
+
+}
@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * LocalTreeScannerTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.scan;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.seedboxer.common.ftp.scan.LocalTreeScanner.Entry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class LocalTreeScannerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void walksInUploadOrder() throws IOException {
+		File root = folder.newFolder("root");
+		write(new File(root, "a"), 3, 1000000L);
+		write(new File(root, "sub/b"), 5, 2000000L);
+
+		List<String> walked = new ArrayList<String>();
+		LocalTreeScanner scanner = new LocalTreeScanner(root, 2);
+		scanner.start();
+		Entry entry;
+		while ((entry = scanner.next()) != null) {
+			walked.add(entry.getKind() + " " + entry.getFile().getName());
+			if (entry.getFile().getName().equals("a")) {
+				assertEquals(3, entry.getLength());
+				assertEquals(1000000L, entry.getLastModified());
+			} else if (entry.getFile().getName().equals("b")) {
+				assertEquals(5, entry.getLength());
+				assertEquals(2000000L, entry.getLastModified());
+			}
+		}
+		assertEquals("[DIRECTORY root, DIRECTORY sub, FILE b, END_DIRECTORY sub, FILE a, END_DIRECTORY root]",
+				walked.toString());
+		assertNull(scanner.next());
+	}
+
+	@Test
+	public void directoryCarriesItsChildren() throws IOException {
+		File root = folder.newFolder("root");
+		write(new File(root, "a"), 3, 1000000L);
+		new File(root, "sub").mkdir();
+
+		LocalTreeScanner scanner = new LocalTreeScanner(root, 10);
+		scanner.start();
+		Entry directory = scanner.next();
+		scanner.close();
+		assertEquals(LocalTreeScanner.Kind.DIRECTORY, directory.getKind());
+		List<String> children = new ArrayList<String>();
+		for (Entry child : directory.getChildren()) {
+			children.add(child.getKind() + " " + child.getFile().getName() + " " + child.getLength()
+					+ " " + child.getLastModified());
+		}
+		Collections.sort(children);
+		assertEquals("[DIRECTORY sub 0 0, FILE a 3 1000000]", children.toString());
+	}
+
+	@Test
+	public void unreadableRootFails() throws IOException {
+		LocalTreeScanner scanner = new LocalTreeScanner(new File(folder.getRoot(), "missing"), 10);
+		scanner.start();
+		try {
+			scanner.next();
+			fail("Scanned a missing directory");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private void write(File file, int length, long lastModified) throws IOException {
+		file.getParentFile().mkdirs();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[length]);
+		} finally {
+			out.close();
+		}
+		file.setLastModified(lastModified);
+	}
+
+}
@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * UploadSchedulerTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.scheduler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.seedboxer.common.ftp.FtpUploader;
+import net.seedboxer.common.ftp.FtpUploaderEventListener;
+import net.seedboxer.common.ftp.FtpUploaderListener;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class UploadSchedulerTest {
+
+	private final static File FILE = new File("file");
+
+	private final UploadScheduler scheduler = new UploadScheduler(2, 1);
+
+	@After
+	public void shutdown() {
+		scheduler.shutdown();
+	}
+
+	@Test
+	public void forwardsFileEvents() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		UploadJob job = scheduler.submit("host", new EventsUploader(), FILE, 0, listener);
+		job.get(10, TimeUnit.SECONDS);
+		assertEquals(JobState.COMPLETED, job.getState());
+		assertEquals(10, job.getBytesTransferred());
+		assertEquals(10, listener.bytes);
+		assertEquals("[started file, retried file 1, resumed file 4, finished file, skipped file]",
+				listener.events.toString());
+	}
+
+	@Test
+	public void plainListenerGetsTheBytes() throws Exception {
+		final long[] bytes = new long[1];
+		UploadJob job = scheduler.submit("host", new EventsUploader(), FILE, 0, new FtpUploaderListener() {
+			@Override
+			public void bytesTransferred(long bytesTransferred) {
+				bytes[0] += bytesTransferred;
+			}
+		});
+		job.get(10, TimeUnit.SECONDS);
+		assertEquals(10, bytes[0]);
+	}
+
+	/**
+	 * Reports every kind of event if the listener takes them.
+	 */
+	private static class EventsUploader implements FtpUploader {
+
+		@Override
+		public void configure(String server, String username, String password, String remotePath, boolean ssl) {
+		}
+
+		@Override
+		public void connect() {
+		}
+
+		@Override
+		public void disconnect() {
+		}
+
+		@Override
+		public void abort() {
+		}
+
+		@Override
+		public void upload(File fileToUpload, FtpUploaderListener listener) {
+			FtpUploaderEventListener events = (FtpUploaderEventListener) listener;
+			events.fileStarted(fileToUpload);
+			events.bytesTransferred(4);
+			events.fileRetried(fileToUpload, 1, new RuntimeException());
+			events.fileResumed(fileToUpload, 4);
+			events.bytesTransferred(6);
+			events.fileFinished(fileToUpload);
+			events.fileSkipped(fileToUpload);
+		}
+	}
+
+	private static class RecordingListener implements FtpUploaderEventListener {
+
+		private final List<String> events = new ArrayList<String>();
+
+		private long bytes;
+
+		@Override
+		public void bytesTransferred(long bytesTransferred) {
+			bytes += bytesTransferred;
+		}
+
+		@Override
+		public void fileStarted(File file) {
+			events.add("started " + file);
+		}
+
+		@Override
+		public void fileResumed(File file, long offset) {
+			events.add("resumed " + file + " " + offset);
+		}
+
+		@Override
+		public void fileSkipped(File file) {
+			events.add("skipped " + file);
+		}
+
+		@Override
+		public void fileRetried(File file, int retry, Throwable cause) {
+			events.add("retried " + file + " " + retry);
+		}
+
+		@Override
+		public void fileFinished(File file) {
+			events.add("finished " + file);
+		}
+	}
+
+}
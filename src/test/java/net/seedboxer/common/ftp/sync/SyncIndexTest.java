@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * SyncIndexTest.java
+ * 
+ * Copyright (c) 2012 Team SeedBoxer.
+ * 
+ * This file is part of SeedBoxer FTPCommon.
+ * 
+ * SeedBoxer FTPCommon is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * SeedBoxer FTPCommon is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with SeedBoxer FTPCommon.  If not, see <http ://www.gnu.org/licenses/>.
+ ******************************************************************************/
+package net.seedboxer.common.ftp.sync;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import net.seedboxer.common.ftp.scan.LocalTreeScanner;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Jorge Davison (jdavisonc)
+ *
+ */
+public class SyncIndexTest {
+
+	private final static String SERVER = "host:21";
+
+	private final static String USER = "user";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void fingerprintFollowsTheDirectEntries() throws IOException {
+		File directory = folder.newFolder("dir");
+		File file = new File(directory, "file");
+		write(file, 10);
+		file.setLastModified(1000000L);
+		long fingerprint = fingerprint(directory);
+		assertTrue(fingerprint == fingerprint(directory));
+
+		write(file, 11);
+		file.setLastModified(1000000L);
+		long resized = fingerprint(directory);
+		assertFalse(fingerprint == resized);
+
+		file.setLastModified(2000000L);
+		long touched = fingerprint(directory);
+		assertFalse(resized == touched);
+
+		File sub = new File(directory, "sub");
+		sub.mkdir();
+		long withSub = fingerprint(directory);
+		assertFalse(touched == withSub);
+
+		write(new File(sub, "nested"), 5);
+		assertTrue(withSub == fingerprint(directory));
+	}
+
+	@Test
+	public void unchangedAfterSave() throws IOException {
+		File file = new File(folder.getRoot(), "index");
+		SyncIndex index = new SyncIndex(file);
+		index.record(SERVER, USER, "a", 1L);
+		index.record(SERVER, USER, "a/b", 2L);
+		index.save(SERVER, USER, "a");
+
+		index = new SyncIndex(file);
+		assertTrue(index.isUnchanged(SERVER, USER, "a", 1L));
+		assertTrue(index.isUnchanged(SERVER, USER, "a/b", 2L));
+		assertFalse(index.isUnchanged(SERVER, USER, "a/b", 3L));
+		assertFalse(index.isUnchanged(SERVER, USER, "c", 1L));
+	}
+
+	@Test
+	public void saveReplacesOnlyTheSyncedRoot() throws IOException {
+		File file = new File(folder.getRoot(), "index");
+		SyncIndex index = new SyncIndex(file);
+		index.record(SERVER, USER, "a", 1L);
+		index.record(SERVER, USER, "a/b", 2L);
+		index.save(SERVER, USER, "a");
+		index.record(SERVER, USER, "ab", 3L);
+		index.save(SERVER, USER, "ab");
+
+		// Second sync of "a" only sees "a", its old "a/b" is dropped
+		index = new SyncIndex(file);
+		assertTrue(index.isUnchanged(SERVER, USER, "a", 1L));
+		index.save(SERVER, USER, "a");
+
+		index = new SyncIndex(file);
+		assertTrue(index.isUnchanged(SERVER, USER, "a", 1L));
+		assertFalse(index.isUnchanged(SERVER, USER, "a/b", 2L));
+		assertTrue(index.isUnchanged(SERVER, USER, "ab", 3L));
+	}
+
+	@Test
+	public void keysByServerUserAndPath() throws IOException {
+		File file = new File(folder.getRoot(), "index");
+		SyncIndex index = new SyncIndex(file);
+		index.record(SERVER, USER, "a", 1L);
+		index.save(SERVER, USER, "a");
+		index.record("other:21", USER, "a", 2L);
+		index.save("other:21", USER, "a");
+
+		index = new SyncIndex(file);
+		assertTrue(index.isUnchanged(SERVER, USER, "a", 1L));
+		assertTrue(index.isUnchanged("other:21", USER, "a", 2L));
+		assertFalse(index.isUnchanged(SERVER, "other", "a", 1L));
+		assertFalse(index.isUnchanged(SERVER, USER, "b", 1L));
+	}
+
+	@Test
+	public void ignoresMalformedRecords() throws IOException {
+		File file = new File(folder.getRoot(), "index");
+		SyncIndex index = new SyncIndex(file);
+		index.record(SERVER, USER, "a", 1L);
+		index.save(SERVER, USER, "a");
+		FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(("12x " + USER + "@" + SERVER + "/a/b\nnonsense\n7 " + USER + "@" + SERVER + "/a/c")
+					.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+
+		index = new SyncIndex(file);
+		assertTrue(index.isUnchanged(SERVER, USER, "a", 1L));
+		assertTrue(index.isUnchanged(SERVER, USER, "a/c", 7L));
+		assertFalse(index.isUnchanged(SERVER, USER, "a/b", 12L));
+	}
+
+	private long fingerprint(File directory) throws IOException {
+		LocalTreeScanner scanner = new LocalTreeScanner(directory, 1);
+		scanner.start();
+		try {
+			return SyncIndex.fingerprint(scanner.next().getChildren());
+		} finally {
+			scanner.close();
+		}
+	}
+
+	private void write(File file, int length) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(new byte[length]);
+		} finally {
+			out.close();
+		}
+	}
+
+}